@@ -1,5 +1,6 @@
 package com.utipdam.internal.controller;
 
+import com.utipdam.csv.CompressedCsv;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.FileSystemResource;
@@ -75,8 +76,9 @@ public class DownloadController {
 
         String path = "/data/mobility/" + datasetDefinition + "/";
         File dir = new File(path);
-        File[] files = dir.listFiles();
-        if (files == null) {
+        //the trace indexes and gzip copies live in the same directory, a dataset whose csv was dropped is read from its copy
+        File[] files = dir.listFiles((d, name) -> name.startsWith("dataset-"));
+        if (files == null || files.length == 0) {
             String str = "File not found";
             ByteArrayResource resource = new ByteArrayResource(str.getBytes(StandardCharsets.UTF_8));
             ContentDisposition contentDisposition = ContentDisposition.builder("inline")
@@ -95,7 +97,7 @@ public class DownloadController {
             Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
             File fi = files[0];
             BufferedReader file = new BufferedReader(
-                    new InputStreamReader(new FileSystemResource(fi).getInputStream()));
+                    new InputStreamReader(CompressedCsv.open(fi.toPath())));
             StringBuffer inputBuffer = new StringBuffer();
             String line;
 
@@ -107,7 +109,7 @@ public class DownloadController {
             String inputStr = inputBuffer.toString();
 
             ContentDisposition contentDisposition = ContentDisposition.builder("inline")
-                    .filename(fi.getName())
+                    .filename(CompressedCsv.csvName(fi.toPath()))
                     .build();
             responseHeaders.setContentDisposition(contentDisposition);
             InputStream stream = new ByteArrayInputStream(inputStr.getBytes(StandardCharsets.UTF_8));
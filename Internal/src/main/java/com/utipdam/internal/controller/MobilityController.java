@@ -5,23 +5,23 @@ import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
-import com.opencsv.RFC4180Parser;
-import com.opencsv.RFC4180ParserBuilder;
-import com.opencsv.exceptions.CsvValidationException;
+import com.utipdam.csv.CompressedCsv;
+import com.utipdam.csv.DatasetLocator;
+import com.utipdam.csv.DeflatedZipWriter;
+import com.utipdam.engine.AnonymizationEngine;
+import com.utipdam.engine.InvalidInputException;
+import com.utipdam.engine.ProcessRunner;
+import com.utipdam.engine.TraceIndex;
+import com.utipdam.engine.TraceStore;
 import com.utipdam.internal.model.FileUploadResponse;
 import com.utipdam.internal.model.Dataset;
-import com.utipdam.internal.model.VisitorTracks;
-import com.utipdam.internal.model.VisitorTracksNew;
-import org.apache.commons.io.filefilter.WildcardFileFilter;
+import jakarta.annotation.PreDestroy;
 import org.apache.commons.validator.GenericValidator;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.HttpClientErrorException;
@@ -30,15 +30,14 @@ import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 @RestController
 public class MobilityController {
@@ -50,11 +49,31 @@ public class MobilityController {
     @Value("${utipdam.app.anonymization}")
     private String ANONYMIZATION_VERSION;
 
+    //a script still running after this long is killed
+    @Value("${utipdam.app.scriptTimeoutMs:600000}")
+    private long SCRIPT_TIMEOUT_MS;
+
     private final String START_TIME = "start_time";
     private final String RESOLUTION = "daily";
     private final String DATE_FORMAT = "yyyy-MM-dd";
 
-    private final String[] NEW_CSV_FORMAT = {"dataset_id", "location_id", "anonymized_unique_id", "start_time", "end_time", "distance"};
+    private final String NATIVE_ENGINE = "java";
+
+    private final AnonymizationEngine anonymizationEngine = new AnonymizationEngine();
+
+    //number of datasets whose trace index stays loaded
+    @Value("${utipdam.app.traceIndexCacheSize:32}")
+    private int TRACE_INDEX_CACHE_SIZE;
+
+    //files of the datasets by definition, kept in a datasets.idx of each definition directory
+    private final DatasetLocator datasetLocator = new DatasetLocator(Paths.get("/data/mobility"));
+
+    private final Map<String, TraceIndex> traceIndexes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TraceIndex> eldest) {
+            return size() > TRACE_INDEX_CACHE_SIZE;
+        }
+    };
 
     //internal server use. upload & anonymize
     //existing dataset
@@ -112,14 +131,8 @@ public class MobilityController {
         fi.setWritable(true, false);
 
         try {
-            String pyPath = "/opt/utils/anonymization-v"+ANONYMIZATION_VERSION+".py";
             logger.info("version " + ANONYMIZATION_VERSION);
-            ProcessBuilder processBuilder = new ProcessBuilder("/bin/sh", "-c","/opt/python_projects/envs/lbacore/bin/python3 " + pyPath + " --input " + file + " --k " + k + " | tail -n +2");
-            processBuilder.redirectErrorStream(true);
-            processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(fi));
-            Process process = processBuilder.start();
-
-            int exitVal = process.waitFor();
+            int exitVal = anonymize(file, k, fi);
             logger.info("exitVal " + exitVal);
             if (exitVal == 0) {
                 String line;
@@ -158,6 +171,9 @@ public class MobilityController {
                 Path oldPath = Paths.get(strPath);
                 Path newPath = Paths.get(strPathNew);
                 Files.move(oldPath, newPath, StandardCopyOption.REPLACE_EXISTING);
+                compress(newPath);
+                locate(newPath);
+                buildTraceIndex(newPath, uuid);
 
                 if (csvDate != null) {
                     long dataPoints = i- 1;
@@ -201,6 +217,7 @@ public class MobilityController {
                         if (f.delete()) {
                             logger.info(f + " file deleted");
                         }
+                        CompressedCsv.pathOf(newPath).toFile().delete();
                         errorMessage = e.getMessage();
                         logger.error(errorMessage);
                         response.put("error", errorMessage);
@@ -221,12 +238,61 @@ public class MobilityController {
             logger.error(errorMessage);
             response.put("error", errorMessage);
             return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (InvalidInputException e) {
+            fi.delete();
+            errorMessage = e.getLocalizedMessage();
+            logger.error(errorMessage);
+            response.put("error", errorMessage);
+            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
         return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
 
     }
 
+    //utipdam.app.anonymization=java runs the in-process engine, any other value is the python script version
+    private int anonymize(String input, String k, File output) throws IOException, InterruptedException, InvalidInputException {
+        if (NATIVE_ENGINE.equalsIgnoreCase(ANONYMIZATION_VERSION)) {
+            int kValue;
+            try {
+                kValue = Integer.parseInt(k.trim());
+            } catch (NumberFormatException e) {
+                throw new InvalidInputException("k must be an integer. You provided " + k);
+            }
+            try (Reader reader = Files.newBufferedReader(Path.of(input), StandardCharsets.UTF_8);
+                 Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8), 1 << 16)) {
+                anonymizationEngine.anonymize(reader, kValue, writer, false);
+            }
+            return 0;
+        }
+
+        String pyPath = "/opt/utils/anonymization-v"+ANONYMIZATION_VERSION+".py";
+        File scriptOutput = new File(output.getPath() + ".out");
+        try {
+            ProcessRunner.Result result = ProcessRunner.run(List.of("/opt/python_projects/envs/lbacore/bin/python3", pyPath, "--input", input, "--k", k),
+                    Duration.ofMillis(SCRIPT_TIMEOUT_MS), scriptOutput);
+            if (result.isTimedOut()) {
+                throw new IOException("Timed out after " + SCRIPT_TIMEOUT_MS / 1000 + " s");
+            }
+            if (result.getExitCode() != 0) {
+                logger.error(Files.readString(scriptOutput.toPath(), StandardCharsets.UTF_8));
+                return result.getExitCode();
+            }
+            //the first line is the Performance-Metrics line
+            try (InputStream in = new BufferedInputStream(new FileInputStream(scriptOutput), 1 << 16);
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 1 << 16)) {
+                int b;
+                do {
+                    b = in.read();
+                } while (b >= 0 && b != '\n');
+                in.transferTo(out);
+            }
+            return 0;
+        } finally {
+            scriptOutput.delete();
+        }
+    }
+
     public static boolean isNumeric(String str) {
         try {
             Double.parseDouble(str);
@@ -248,16 +314,17 @@ public class MobilityController {
         String path = "/data/mobility/" + datasetDefinitionId;
         File dir = new File(path);
         if (dir.exists()) {
+            //the entries are the deflated data of the gzip copies, written first for files that have none
             StreamingResponseBody streamResponse = clientOut -> {
-                try (ZipOutputStream zos = new ZipOutputStream(clientOut)) {
+                try {
+                    DeflatedZipWriter zip = new DeflatedZipWriter(new BufferedOutputStream(clientOut, 1 << 16));
                     for (String datasetId : datasetArr) {
-                        FileFilter fileFilter = new WildcardFileFilter("*dataset-" + datasetId + "-*");
-                        File[] files = dir.listFiles(fileFilter);
-                        if (files != null && files.length > 0) {
-                            File fi = files[0];
-                            addToZipFile(zos, new FileSystemResource(fi).getInputStream(), fi.getName());
+                        DatasetLocator.Location location = datasetLocator.find(datasetDefinitionId, datasetId);
+                        if (location != null) {
+                            zip.add(location.file());
                         }
                     }
+                    zip.finish();
                 } finally {
                     clientOut.close();
                 }
@@ -275,185 +342,119 @@ public class MobilityController {
 
     }
 
-    private void addToZipFile(ZipOutputStream zos, InputStream fis, String filename) throws IOException {
-        ZipEntry zipEntry = new ZipEntry(filename);
-        zos.putNextEntry(zipEntry);
-        byte[] bytes = new byte[1024];
-        int length;
-        while ((length = fis.read(bytes)) >= 0) {
-            zos.write(bytes, 0, length);
-        }
-        zos.closeEntry();
-        fis.close();
-    }
-
     @GetMapping("/mobility/visitorDetection")
     public Integer findMeHere(@RequestParam String datasetDefinitionId,
                               @RequestParam String datasetId,
                               @RequestParam String locationIds) {
-        String errorMessage;
-        RFC4180Parser rfc4180Parser = new RFC4180ParserBuilder().build();
         int[] arr = Arrays.stream(locationIds.substring(1, locationIds.length() - 1).split(","))
                 .map(String::trim).mapToInt(Integer::parseInt).toArray();
-        List<Integer> locIdList = Arrays.stream(arr).boxed().collect(Collectors.toList());
-        File file = new File("/data/mobility/" + datasetDefinitionId);
         logger.info(datasetDefinitionId);
         logger.info(datasetId);
-        File[] files = file.listFiles((d, name) -> name.contains(datasetId));
-        if (files != null && files.length > 0) {
-            List<VisitorTracks> visitorTracks = new ArrayList<>();
-            List<VisitorTracksNew> visitorTracksNew = new ArrayList<>();
-            boolean newFormat = false;
-            try (CSVReader csvReader = new CSVReaderBuilder(new FileReader(files[0])).withSkipLines(1).withCSVParser(rfc4180Parser).build()) {
-                String[] nextRecord;
-                int i =0;
-                while ((nextRecord = csvReader.readNext()) != null) {
-                    if (i == 0){
-                        newFormat = Arrays.stream(nextRecord).count() == Arrays.stream(NEW_CSV_FORMAT).count();
-                        logger.info("new format " + newFormat);
-                    }
-                    if (newFormat) {
-                        VisitorTracksNew visitorTrackNew = createVisitorTrackNew(nextRecord);
-                        if (visitorTrackNew != null) {
-                            visitorTracksNew.add(visitorTrackNew);
-                        }
-                    } else {
-                        VisitorTracks visitorTrack = createVisitorTrack(nextRecord);
-                        if (visitorTrack != null) {
-                            visitorTracks.add(visitorTrack);
-                        }
-                    }
-                    i++;
-                }
-            } catch (IOException | CsvValidationException e) {
-                errorMessage = e.getMessage();
-                logger.error(errorMessage);
-                return null;
-            }
-            Map<String, List<Integer>> vIdMap;
-            if (newFormat) {
-                visitorTracksNew.sort(Comparator.comparing(VisitorTracksNew::getAnonymizedUniqueId)
-                        .thenComparing(VisitorTracksNew::getStartTime));
-                vIdMap = visitorTracksNew.stream().collect(Collectors.groupingBy(
-                        VisitorTracksNew::getAnonymizedUniqueId,
-                        Collectors.mapping(VisitorTracksNew::getLocationId, Collectors.toList())));
-            }else{
-                visitorTracks.sort(Comparator.comparing(VisitorTracks::getVisitorId)
-                        .thenComparing(VisitorTracks::getFirstTimeSeen));
-                vIdMap = visitorTracks.stream().filter(p -> p.getRegionId() > 0)
-                        .collect(Collectors.groupingBy(
-                                VisitorTracks::getVisitorId,
-                                Collectors.mapping(VisitorTracks::getRegionId, Collectors.toList())));
-            }
-            Map<String, List<Integer>> vIdMapFiltered = new HashMap<>();
-
-            Iterator<Map.Entry<String, List<Integer>>> iterator = vIdMap.entrySet().iterator();
-            Map.Entry<String, List<Integer>> prev = null;
-
-            while (iterator.hasNext()) {
-                Map.Entry<String, List<Integer>> next = iterator.next();
-
-                if (prev != null) {
-                    if (prev.getValue().size() > 1) {
-                        List<Integer> newList = new ArrayList<>();
-                        for (int i = 0; i < prev.getValue().size(); i++) {
-                            if ((i + 1) < prev.getValue().size()) {
-                                if (!Objects.equals(prev.getValue().get(i), prev.getValue().get(i + 1))) {
-                                    newList.add(prev.getValue().get(i));
-                                }
-                            } else {
-                                newList.add(prev.getValue().get(i));
-                            }
-
-                        }
-
-                        vIdMapFiltered.put(prev.getKey(), newList);
-                    } else {
-                        vIdMapFiltered.put(prev.getKey(), prev.getValue());
-                    }
-                }
-
-                prev = next;
-
-            }
-
-            //last entry
-            if (prev != null) {
-                if (prev.getValue().size() > 1) {
-                    List<Integer> newList = new ArrayList<>();
-                    for (int i = 0; i < prev.getValue().size(); i++) {
-                        if ((i + 1) < prev.getValue().size()) {
-                            if (!Objects.equals(prev.getValue().get(i), prev.getValue().get(i + 1))) {
-                                newList.add(prev.getValue().get(i));
-                            }
-                        } else {
-                            newList.add(prev.getValue().get(i));
-                        }
-
-                    }
-
-                    vIdMapFiltered.put(prev.getKey(), newList);
-                } else {
-                    vIdMapFiltered.put(prev.getKey(), prev.getValue());
-                }
-            }
-
-            int i = 0;
-            for (Map.Entry<String, List<Integer>> entry : vIdMap.entrySet()) {
-                if (Collections.indexOfSubList(entry.getValue(), locIdList) > -1) {
-                    i++;
-                }
+        try {
+            TraceIndex index = getTraceIndex(datasetDefinitionId, datasetId);
+            if (index != null) {
+                return index.count(arr);
             }
-
-            return i;
-        } else {
             logger.error("No matching dataset definition");
             return null;
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+            return null;
         }
     }
 
-    private static VisitorTracksNew createVisitorTrackNew(String[] metadata) {
-        int datasetId, locationId;
-        String startTime, endTime, distance, anonymizedUniqueId;
-        //dataset_id,location_id,anonymized_unique_id,start_time,end_time,distance
+    //counts of every sequence in the order given, all matched in one pass over the traces
+    @PostMapping("/mobility/visitorDetection/batch")
+    public int[] findMeHereBatch(@RequestParam String datasetDefinitionId,
+                                 @RequestParam String datasetId,
+                                 @RequestBody int[][] locationIds) {
+        logger.info(datasetDefinitionId);
+        logger.info(datasetId);
         try {
-
-            datasetId = Integer.parseInt(metadata[0]);
-            locationId = Integer.parseInt(metadata[1]);
-            anonymizedUniqueId = metadata[2];
-            startTime = metadata[3];
-            endTime = metadata[4];
-            distance = metadata[5];
-
-            return new VisitorTracksNew(datasetId, locationId, anonymizedUniqueId, startTime, endTime, distance);
-
-        } catch (Exception e) {
+            TraceIndex index = getTraceIndex(datasetDefinitionId, datasetId);
+            if (index != null) {
+                return index.countAll(locationIds);
+            }
+            logger.error("No matching dataset definition");
+            return null;
+        } catch (IOException e) {
             logger.error(e.getMessage());
             return null;
         }
     }
 
-    private static VisitorTracks createVisitorTrack(String[] metadata) {
-        int siteId, regionId, populationType, globalId;
-        String beginTime, endTime, visitorId;
-        //site_id,region_id,visitor_id,device_id,device_type,population_type,global_id,first_time_seen,last_time_seen
-        try {
+    //the loaded index, else the stored one, else one built from the trace store or the dataset file
+    private TraceIndex getTraceIndex(String datasetDefinitionId, String datasetId) throws IOException {
+        synchronized (traceIndexes) {
+            TraceIndex index = traceIndexes.get(datasetId);
+            if (index != null) {
+                return index;
+            }
+        }
+        Path directory = Paths.get("/data/mobility/" + datasetDefinitionId);
+        Path indexFile = TraceIndex.pathOf(directory, datasetId);
+        TraceIndex index;
+        if (Files.exists(indexFile)) {
+            index = TraceIndex.read(indexFile);
+        } else {
+            DatasetLocator.Location location = datasetLocator.find(datasetDefinitionId, datasetId);
+            if (location == null) {
+                return null;
+            }
+            Path storeFile = TraceStore.pathOf(directory, datasetId);
+            if (!Files.exists(storeFile)) {
+                TraceStore.write(location.file(), storeFile);
+            }
+            try (TraceStore store = TraceStore.open(storeFile)) {
+                index = TraceIndex.build(store);
+            }
+            index.write(indexFile);
+        }
+        synchronized (traceIndexes) {
+            traceIndexes.put(datasetId, index);
+        }
+        return index;
+    }
 
-            siteId = Integer.parseInt(metadata[0]);
-            regionId = Integer.parseInt(metadata[1]);
-            visitorId = metadata[2];
-            populationType = Integer.parseInt(metadata[5]);
-            globalId = Integer.parseInt(metadata[6]);
+    //the gzip copy the downloads send, a dataset without one is still stored and the copy written by its first download
+    private void compress(Path datasetFile) {
+        try {
+            CompressedCsv.write(datasetFile);
+        } catch (IOException e) {
+            logger.error("gzip copy of " + datasetFile + " not written: " + e.getMessage());
+        }
+    }
 
-            beginTime = metadata[7];
-            endTime = metadata[8];
+    //found by downloads and queries without listing the directory, the watcher of the index records it otherwise
+    private void locate(Path datasetFile) {
+        try {
+            datasetLocator.record(datasetFile);
+        } catch (IOException e) {
+            logger.error("dataset index of " + datasetFile.getParent() + " not updated: " + e.getMessage());
+        }
+    }
 
-            return new VisitorTracks(siteId, regionId, visitorId, populationType, globalId, beginTime, endTime);
+    @PreDestroy
+    public void close() throws IOException {
+        datasetLocator.close();
+    }
 
-        } catch (Exception e) {
-            logger.error(e.getMessage());
-            return null;
+    private void buildTraceIndex(Path datasetFile, UUID datasetId) {
+        try {
+            //a re-uploaded dataset replaces the store of the previous file
+            Path storeFile = TraceStore.pathOf(datasetFile.getParent(), datasetId.toString());
+            TraceStore.write(datasetFile, storeFile);
+            TraceIndex index;
+            try (TraceStore store = TraceStore.open(storeFile)) {
+                index = TraceIndex.build(store);
+            }
+            index.write(TraceIndex.pathOf(datasetFile.getParent(), datasetId.toString()));
+            synchronized (traceIndexes) {
+                traceIndexes.put(datasetId.toString(), index);
+            }
+        } catch (IOException e) {
+            logger.error("trace index of " + datasetId + " not built: " + e.getMessage());
         }
     }
 
-}
\ No newline at end of file
+}
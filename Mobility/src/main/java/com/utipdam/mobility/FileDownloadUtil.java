@@ -0,0 +1,263 @@
+package com.utipdam.mobility;
+
+import com.utipdam.csv.CompressedCsv;
+import com.utipdam.csv.DeflatedZipWriter;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+public class FileDownloadUtil {
+    private static final Logger logger = LoggerFactory.getLogger(FileDownloadUtil.class);
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    //request attributes of the Tomcat connector, the file is then written by the connector with sendfile
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    //sends a dataset file kept on disk, file may also be its gzip copy (CompressedCsv), which is written first when it is
+    //missing. the ETag is made of the crc and length of the csv recorded in the copy, a client that has the file gets 304
+    //and an interrupted transfer resumes with a Range. the copy is sent as it is when the client accepts gzip and asks for
+    //the whole file, otherwise the csv is sent with sendfile or a channel transfer, or inflated when only the copy is left
+    public static ResponseEntity<?> download(HttpServletRequest request, HttpHeaders headers, Path file)
+            throws IOException {
+        Path csv = file.resolveSibling(CompressedCsv.csvName(file));
+        CompressedCsv compressed = CompressedCsv.of(csv);
+        long size = compressed.getSize();
+        long lastModified = Files.getLastModifiedTime(compressed.getFile()).toMillis();
+        String identityTag = "\"" + Integer.toHexString(compressed.getCrc()) + "-" + Long.toHexString(size) + "\"";
+        String gzipTag = identityTag.substring(0, identityTag.length() - 1) + "-gz\"";
+
+        long[] range = ifRange(request, identityTag, lastModified) ? range(request.getHeader(HttpHeaders.RANGE), size) : null;
+        boolean gzip = range == null && acceptsGzip(request);
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setETag(gzip ? gzipTag : identityTag);
+        headers.setLastModified(lastModified);
+
+        if (notModified(request, gzip ? gzipTag : identityTag, lastModified)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+        }
+        if (range != null && range.length == 0) {
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).headers(headers).build();
+        }
+
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(range == null ? HttpStatus.OK : HttpStatus.PARTIAL_CONTENT)
+                .headers(headers)
+                .contentType(MediaType.APPLICATION_OCTET_STREAM);
+        if (gzip) {
+            Path copy = compressed.getFile();
+            long length = size(copy);
+            builder.header(HttpHeaders.CONTENT_ENCODING, "gzip").contentLength(length);
+            if (sendfile(request, copy, 0, length)) {
+                return builder.build();
+            }
+            return builder.body(stream(copy, 0, false));
+        }
+
+        long start = range == null ? 0 : range[0];
+        long end = range == null ? size : range[1] + 1;
+        if (range != null) {
+            builder.header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + size);
+        }
+        builder.contentLength(end - start);
+        if (!Files.exists(csv)) {
+            return builder.body(inflate(compressed.getFile(), start, end - start));
+        }
+        if (sendfile(request, csv, start, end)) {
+            return builder.build();
+        }
+        StreamingResponseBody body = out -> copy(csv, start, end, out);
+        return builder.body(body);
+    }
+
+    //streams the file from start
+    public static StreamingResponseBody stream(Path file, long start, boolean gzip) {
+        return out -> {
+            OutputStream target = gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+            copy(file, start, size(file), target);
+            if (gzip) {
+                ((GZIPOutputStream) target).finish();
+            }
+        };
+    }
+
+    //length bytes of the csv from start, inflated from its gzip copy
+    public static StreamingResponseBody inflate(Path compressed, long start, long length) {
+        return out -> {
+            try (InputStream in = CompressedCsv.open(compressed)) {
+                in.skipNBytes(start);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long left = length;
+                int read;
+                while (left > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, left))) >= 0) {
+                    out.write(buffer, 0, read);
+                    left -= read;
+                }
+            }
+        };
+    }
+
+    //writes the dataset files as entries of a zip straight to the response, onComplete runs once the last entry is sent.
+    //the entries are the deflated data of the gzip copies, written first for files that have none. a client that goes
+    //away ends the copy at its next write
+    public static StreamingResponseBody zip(List<Path> files, Runnable onComplete) {
+        return out -> {
+            DeflatedZipWriter zip = new DeflatedZipWriter(new BufferedOutputStream(out, BUFFER_SIZE));
+            try {
+                for (Path file : files) {
+                    zip.add(file);
+                }
+                zip.finish();
+            } catch (IOException e) {
+                logger.info("zip download stopped: " + e.getMessage());
+                return;
+            }
+            onComplete.run();
+        };
+    }
+
+    public static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String encoding : acceptEncoding.split(",")) {
+            String[] parts = encoding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length < 2 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    //first line without its line break, null for an empty file
+    public static String readFirstLine(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int read = channel.read(buffer);
+            if (read <= 0) {
+                return null;
+            }
+            int end = 0;
+            while (end < read && buffer.get(end) != '\n') {
+                end++;
+            }
+            return new String(buffer.array(), 0, end, StandardCharsets.UTF_8);
+        }
+    }
+
+    public static long size(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.size();
+        }
+    }
+
+    private static boolean sendfile(HttpServletRequest request, Path file, long start, long end) {
+        if (!Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START, start);
+        request.setAttribute(SENDFILE_END, end);
+        return true;
+    }
+
+    private static void copy(Path file, long start, long end, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = start;
+            while (position < end) {
+                position += channel.transferTo(position, end - position, target);
+            }
+        }
+    }
+
+    //If-None-Match, else If-Modified-Since
+    private static boolean notModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince = dateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    //whether a Range applies: no If-Range, or one with the strong ETag or the time of the file
+    private static boolean ifRange(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.trim().startsWith("\"")) {
+            return ifRange.trim().equals(etag);
+        }
+        long date = dateHeader(request, HttpHeaders.IF_RANGE);
+        return date >= 0 && lastModified / 1000 == date / 1000;
+    }
+
+    //[first, last] byte of a single byte range, an empty array when it is outside the file, null when there is no range or
+    //one this does not serve (several ranges), which is then answered with the whole file
+    private static long[] range(String header, long size) {
+        if (header == null || !header.startsWith("bytes=") || header.contains(",")) {
+            return null;
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                return suffix <= 0 || size == 0 ? new long[0] : new long[]{Math.max(0, size - suffix), size - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                return null;
+            }
+            return start >= size ? new long[0] : new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long dateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
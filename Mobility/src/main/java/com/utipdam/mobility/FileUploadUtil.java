@@ -1,9 +1,13 @@
 package com.utipdam.mobility;
 
+import com.utipdam.mobility.engine.UploadSummary;
+import com.utipdam.mobility.exception.DefaultException;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -23,4 +27,20 @@ public class FileUploadUtil {
             throw new IOException("Could not save file: " + fileName, ioe);
         }
     }
-}
\ No newline at end of file
+
+    //saves the file in the same pass that computes its SHA-256 and, with validate, checks the rows and reads their dates
+    public static UploadSummary saveAndScanFile(String fileName, MultipartFile multipartFile, Path uploadPath, boolean validate)
+            throws IOException, DefaultException {
+
+        if (!Files.exists(uploadPath)) {
+            Files.createDirectories(uploadPath);
+        }
+
+        try (InputStream inputStream = multipartFile.getInputStream();
+             OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(uploadPath.resolve(fileName)), 1 << 16)) {
+            return UploadSummary.scan(inputStream, outputStream, validate);
+        } catch (IOException ioe) {
+            throw new IOException("Could not save file: " + fileName, ioe);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.utipdam.mobility;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
+
+//least recently used cache of at most capacity entries. concurrent misses of the same key share one load, a load that
+//overlaps an invalidation of its key is returned to its callers but not cached
+public class SingleFlightCache<K, V> {
+    private final int capacity;
+    private final LinkedHashMap<K, V> entries;
+    private final Map<K, CompletableFuture<V>> loading = new HashMap<>();
+    private long generation;
+    private long hits;
+    private long misses;
+    private long coalesced;
+    private long evictions;
+    private long invalidations;
+
+    public SingleFlightCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > SingleFlightCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    //the cached value, else the value of the load already running for the key, else a new load. null values are not cached
+    public V get(K key, Loader<V> loader) throws IOException {
+        CompletableFuture<V> future;
+        long loadGeneration;
+        synchronized (this) {
+            V value = entries.get(key);
+            if (value != null) {
+                hits++;
+                return value;
+            }
+            future = loading.get(key);
+            if (future != null) {
+                coalesced++;
+                loadGeneration = -1;
+            } else {
+                misses++;
+                future = new CompletableFuture<>();
+                loading.put(key, future);
+                loadGeneration = generation;
+            }
+        }
+        if (loadGeneration < 0) {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            }
+        }
+
+        try {
+            V value = loader.load();
+            synchronized (this) {
+                loading.remove(key, future);
+                if (value != null && loadGeneration == generation && capacity > 0) {
+                    entries.put(key, value);
+                }
+            }
+            future.complete(value);
+            return value;
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                loading.remove(key, future);
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public synchronized void invalidate(Predicate<K> keys) {
+        generation++;
+        entries.keySet().removeIf(key -> {
+            if (keys.test(key)) {
+                invalidations++;
+                return true;
+            }
+            return false;
+        });
+        //later callers start a new load instead of waiting for one that may read the old data
+        loading.keySet().removeIf(keys);
+    }
+
+    public synchronized void put(K key, V value) {
+        generation++;
+        loading.remove(key);
+        if (capacity > 0) {
+            entries.put(key, value);
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("coalesced", coalesced);
+        stats.put("hitRatio", hits + misses + coalesced == 0 ? 0 :
+                Math.round((hits + coalesced) * 10000.0 / (hits + misses + coalesced)) / 100.0);
+        stats.put("evictions", evictions);
+        stats.put("invalidations", invalidations);
+        stats.put("entries", entries.size());
+        stats.put("capacity", capacity);
+        return stats;
+    }
+
+    public interface Loader<V> {
+        V load() throws IOException;
+    }
+}
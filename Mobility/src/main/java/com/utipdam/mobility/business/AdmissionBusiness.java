@@ -0,0 +1,231 @@
+package com.utipdam.mobility.business;
+
+import com.utipdam.mobility.config.BusinessService;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+//concurrency limits of the engine runs of the cpu heavy endpoints that follow latency, one per workload since anonymize,
+//audit and sweep cost differently per MB: a limit grows while the latency per uploaded MB of its workload stays near the
+//lowest one seen recently and shrinks as soon as runs slow down, runs over the limit wait in a bounded queue without
+//holding a thread: a permit is a future completed by the run that frees the slot
+@BusinessService
+public class AdmissionBusiness {
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionBusiness.class);
+
+    public static final String ANONYMIZE = "anonymize";
+    public static final String AUDIT = "audit";
+    public static final String SWEEP = "sweep";
+
+    private static final long BYTES_PER_MB = 1 << 20;
+
+    //samples after which the lowest latency is forgotten, so it follows changes of the machine and the data
+    private static final int WINDOW = 500;
+
+    @Value("${utipdam.app.admissionMinLimit:1}")
+    private int MIN_LIMIT;
+
+    //0 uses twice the number of processors
+    @Value("${utipdam.app.admissionMaxLimit:0}")
+    private int MAX_LIMIT;
+
+    @Value("${utipdam.app.admissionQueue:20}")
+    private int QUEUE;
+
+    @Value("${utipdam.app.admissionWaitMs:10000}")
+    private long WAIT_MS;
+
+    //how much slower than the lowest recent latency runs may get before the limit shrinks
+    @Value("${utipdam.app.admissionTolerance:1.5}")
+    private double TOLERANCE;
+
+    private final Map<String, Limiter> limiters = new LinkedHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (MAX_LIMIT <= 0) {
+            MAX_LIMIT = 2 * Runtime.getRuntime().availableProcessors();
+        }
+        MIN_LIMIT = Math.max(1, Math.min(MIN_LIMIT, MAX_LIMIT));
+        for (String workload : List.of(ANONYMIZE, AUDIT, SWEEP)) {
+            limiters.put(workload, new Limiter(workload));
+        }
+    }
+
+    //a permit to run the engine of the workload on an upload of size bytes, completed with null when it is rejected
+    public CompletableFuture<Permit> acquire(String workload, long size) {
+        return limiters.get(workload).acquire(size);
+    }
+
+    //false when the limit and the queue of the workload are full, checked before a request is dispatched at all
+    public boolean admits(String workload) {
+        return limiters.get(workload).admits();
+    }
+
+    //seconds until a rejected run of the workload is likely to be admitted
+    public long getRetryAfterSeconds(String workload) {
+        return limiters.get(workload).getRetryAfterSeconds();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        limiters.forEach((workload, limiter) -> stats.put(workload, limiter.getStats()));
+        return stats;
+    }
+
+    private class Limiter {
+        private final String workload;
+        private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+        private double limit = MIN_LIMIT;
+        private int inFlight;
+        private long rejected;
+        private double shortLatency;
+        private double minLatency;
+        private double windowMinLatency;
+        private int windowSamples;
+        private double averageSeconds;
+
+        Limiter(String workload) {
+            this.workload = workload;
+        }
+
+        CompletableFuture<Permit> acquire(long size) {
+            Waiter waiter;
+            synchronized (this) {
+                if (inFlight < (int) limit && waiters.isEmpty()) {
+                    inFlight++;
+                    return CompletableFuture.completedFuture(new Permit(this, size));
+                }
+                if (waiters.size() >= QUEUE) {
+                    rejected++;
+                    return CompletableFuture.completedFuture(null);
+                }
+                waiter = new Waiter(new CompletableFuture<>(), size);
+                waiters.add(waiter);
+            }
+            waiter.permit.completeOnTimeout(null, WAIT_MS, TimeUnit.MILLISECONDS).thenAccept(permit -> {
+                if (permit == null) {
+                    synchronized (this) {
+                        waiters.remove(waiter);
+                        rejected++;
+                    }
+                }
+            });
+            return waiter.permit;
+        }
+
+        synchronized boolean admits() {
+            if (inFlight >= (int) limit && waiters.size() >= QUEUE) {
+                rejected++;
+                return false;
+            }
+            return true;
+        }
+
+        synchronized long getRetryAfterSeconds() {
+            return Math.max(1, Math.round(averageSeconds * (waiters.size() + 1) / limit));
+        }
+
+        synchronized Map<String, Object> getStats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("limit", (int) limit);
+            stats.put("inFlight", inFlight);
+            stats.put("waiting", waiters.size());
+            stats.put("rejected", rejected);
+            return stats;
+        }
+
+        //nanos < 0: the run failed, its latency is no sample. the freed slots go to the waiters in arrival order, their
+        //runs start outside the lock
+        private void release(long nanos, long size) {
+            List<Waiter> admitted = new ArrayList<>();
+            synchronized (this) {
+                boolean saturated = inFlight >= limit / 2;
+                inFlight--;
+                if (nanos >= 0) {
+                    sample(nanos, size, saturated);
+                }
+                while (inFlight < (int) limit && !waiters.isEmpty()) {
+                    inFlight++;
+                    admitted.add(waiters.poll());
+                }
+            }
+            for (Waiter waiter : admitted) {
+                //timed out meanwhile, the slot goes to the next one
+                if (!waiter.permit.complete(new Permit(this, waiter.size))) {
+                    release(-1, waiter.size);
+                }
+            }
+        }
+
+        private void sample(long nanos, long size, boolean saturated) {
+            double seconds = nanos / 1e9;
+            double sample = seconds / Math.max(1, (double) size / BYTES_PER_MB);
+            if (minLatency == 0) {
+                shortLatency = minLatency = windowMinLatency = sample;
+                averageSeconds = seconds;
+            } else {
+                shortLatency = 0.2 * sample + 0.8 * shortLatency;
+                averageSeconds = 0.2 * seconds + 0.8 * averageSeconds;
+            }
+            //the lowest latency of this and the previous window
+            windowMinLatency = Math.min(windowMinLatency, sample);
+            minLatency = Math.min(minLatency, sample);
+            if (++windowSamples == WINDOW) {
+                minLatency = windowMinLatency;
+                windowMinLatency = sample;
+                windowSamples = 0;
+            }
+
+            //1 while runs are not slowing down, down to 0.5 when they are
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * minLatency / shortLatency));
+            //grow only when the limit is actually in use
+            double newLimit = limit * gradient + (saturated ? Math.sqrt(limit) : 0);
+            double previous = limit;
+            limit = Math.max(MIN_LIMIT, Math.min(MAX_LIMIT, 0.8 * limit + 0.2 * Math.min(newLimit, limit * 2)));
+            if ((int) limit != (int) previous) {
+                logger.info(workload + " admission limit " + (int) limit);
+            }
+        }
+    }
+
+    private record Waiter(CompletableFuture<Permit> permit, long size) {
+    }
+
+    public static class Permit implements AutoCloseable {
+        private final Limiter limiter;
+        private final long start = System.nanoTime();
+        private final long size;
+        private boolean finished;
+        private boolean closed;
+
+        private Permit(Limiter limiter, long size) {
+            this.limiter = limiter;
+            this.size = size;
+        }
+
+        //the engine run completed, its latency per MB is a sample of the limit
+        public void finished() {
+            finished = true;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                limiter.release(finished ? System.nanoTime() - start : -1, size);
+            }
+        }
+    }
+}
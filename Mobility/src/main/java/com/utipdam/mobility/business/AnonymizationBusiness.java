@@ -0,0 +1,234 @@
+package com.utipdam.mobility.business;
+
+import com.utipdam.engine.AnonymizationEngine;
+import com.utipdam.engine.AnonymizationMetrics;
+import com.utipdam.engine.InvalidInputException;
+import com.utipdam.engine.ProcessRunner;
+import com.utipdam.mobility.config.BusinessService;
+import com.utipdam.mobility.engine.AuditEngine;
+import com.utipdam.mobility.engine.AuditResult;
+import com.utipdam.mobility.exception.DefaultException;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ForkJoinPool;
+
+@BusinessService
+public class AnonymizationBusiness {
+    private static final Logger logger = LoggerFactory.getLogger(AnonymizationBusiness.class);
+
+    //utipdam.app.anonymization / utipdam.app.audit value selecting the in-process engine instead of a python script version
+    public static final String NATIVE_ENGINE = "java";
+
+    @Value("${utipdam.app.anonymization}")
+    private String ANONYMIZATION_VERSION;
+
+    @Value("${utipdam.app.audit}")
+    private String AUDIT_VERSION;
+
+    //heap the native engine may use for one file before it spills partitions to SPILL_DIRECTORY
+    @Value("${utipdam.app.memoryBudget:1073741824}")
+    private long MEMORY_BUDGET;
+
+    @Value("${utipdam.app.spillDirectory:/tmp/utipdam-spill}")
+    private String SPILL_DIRECTORY;
+
+    //rough heap used by the in-memory trace table per byte of csv
+    private static final int HEAP_PER_FILE_BYTE = 4;
+
+    private static final int MAX_SPILL_PARTITIONS = 1024;
+
+    @Autowired
+    @Qualifier("engineForkJoinPool")
+    private ForkJoinPool engineForkJoinPool;
+
+    @Autowired
+    private PythonWorkerBusiness pythonWorkerBusiness;
+
+    private AnonymizationEngine anonymizationEngine;
+
+    private AuditEngine auditEngine;
+
+    @PostConstruct
+    public void init() {
+        ForkJoinPool pool = engineForkJoinPool.getParallelism() > 1 ? engineForkJoinPool : null;
+        anonymizationEngine = new AnonymizationEngine(pool);
+        auditEngine = new AuditEngine(pool);
+    }
+
+    public String getAnonymizationVersion() {
+        return ANONYMIZATION_VERSION;
+    }
+
+    public String getAuditVersion() {
+        return AUDIT_VERSION;
+    }
+
+    public boolean isNativeAnonymization() {
+        return NATIVE_ENGINE.equalsIgnoreCase(ANONYMIZATION_VERSION);
+    }
+
+    public boolean isNativeAudit() {
+        return NATIVE_ENGINE.equalsIgnoreCase(AUDIT_VERSION);
+    }
+
+    //writes the anonymized csv to output, preceded by the Performance-Metrics line when includeMetrics is set,
+    //and returns the number of data points written
+    public long anonymize(String inputPath, String k, File output, boolean includeMetrics)
+            throws IOException, InterruptedException, DefaultException {
+        return anonymize(inputPath, k, output, includeMetrics, null);
+    }
+
+    //handle, when set, kills the anonymization script when it is cancelled
+    public long anonymize(String inputPath, String k, File output, boolean includeMetrics, ProcessRunner.Handle handle)
+            throws IOException, InterruptedException, DefaultException {
+        logger.info("version " + ANONYMIZATION_VERSION);
+        if (isNativeAnonymization()) {
+            return anonymizeNative(inputPath, k, output, includeMetrics).getAnonymizedTotal();
+        }
+        return anonymizePython(inputPath, k, output, includeMetrics, handle);
+    }
+
+    public AuditResult audit(String inputPath, String k, Integer limit) throws IOException, DefaultException {
+        File input = new File(inputPath);
+        int partitions = spillPartitions(input);
+        try (Reader reader = Files.newBufferedReader(input.toPath(), StandardCharsets.UTF_8)) {
+            if (partitions > 1) {
+                logger.info("audit spilled to " + partitions + " partitions");
+                return auditEngine.audit(reader, parseK(k), limit, Paths.get(SPILL_DIRECTORY), partitions);
+            }
+            return auditEngine.audit(reader, parseK(k), limit);
+        } catch (InvalidInputException e) {
+            throw new DefaultException(e.getMessage());
+        }
+    }
+
+    //suppression metrics for every k in kMin..kMax, always computed by the in-process engine from one parse
+    public SortedMap<Integer, AnonymizationMetrics> sweep(String inputPath, int kMin, int kMax) throws IOException, DefaultException {
+        File input = new File(inputPath);
+        int partitions = spillPartitions(input);
+        try (Reader reader = Files.newBufferedReader(input.toPath(), StandardCharsets.UTF_8)) {
+            if (partitions > 1) {
+                logger.info("sweep spilled to " + partitions + " partitions");
+                return anonymizationEngine.sweep(reader, kMin, kMax, Paths.get(SPILL_DIRECTORY), partitions);
+            }
+            return anonymizationEngine.sweep(reader, kMin, kMax);
+        } catch (InvalidInputException e) {
+            throw new DefaultException(e.getMessage());
+        }
+    }
+
+    private AnonymizationMetrics anonymizeNative(String inputPath, String k, File output, boolean includeMetrics)
+            throws IOException, DefaultException {
+        File input = new File(inputPath);
+        int partitions = spillPartitions(input);
+        try (Reader reader = Files.newBufferedReader(input.toPath(), StandardCharsets.UTF_8);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8), 1 << 16)) {
+            if (partitions > 1) {
+                logger.info("anonymization spilled to " + partitions + " partitions");
+                return anonymizationEngine.anonymize(reader, parseK(k), writer, includeMetrics, Paths.get(SPILL_DIRECTORY), partitions);
+            }
+            return anonymizationEngine.anonymize(reader, parseK(k), writer, includeMetrics);
+        } catch (InvalidInputException e) {
+            throw new DefaultException(e.getMessage());
+        }
+    }
+
+    //1 when the file fits the memory budget, otherwise enough partitions for one of them to fit
+    private int spillPartitions(File input) {
+        long estimate = input.length() * HEAP_PER_FILE_BYTE;
+        if (estimate <= MEMORY_BUDGET) {
+            return 1;
+        }
+        return (int) Math.min(MAX_SPILL_PARTITIONS, (estimate + MEMORY_BUDGET - 1) / MEMORY_BUDGET);
+    }
+
+    private int parseK(String k) throws DefaultException {
+        try {
+            return Integer.parseInt(k.trim());
+        } catch (NumberFormatException e) {
+            throw new DefaultException("k must be an integer. You provided " + k);
+        }
+    }
+
+    //runs the audit script and returns its output, cancelling handle kills the script
+    public String auditPython(String inputPath, String k, ProcessRunner.Handle handle)
+            throws IOException, InterruptedException, DefaultException {
+        String pyPath = "/opt/utils/audit-v" + AUDIT_VERSION + ".py";
+        Path scriptOutput = Files.createTempFile("audit-", ".out");
+        try {
+            int exitVal = pythonWorkerBusiness.run(pyPath, List.of("--input", inputPath, "--k", k), scriptOutput, handle);
+            String output = Files.readString(scriptOutput, StandardCharsets.UTF_8);
+            if (exitVal != 0) {
+                throw new DefaultException(output);
+            }
+            return output;
+        } finally {
+            Files.deleteIfExists(scriptOutput);
+        }
+    }
+
+    //copies the script output to the output file, counting the csv lines on the way
+    private long anonymizePython(String inputPath, String k, File output, boolean includeMetrics, ProcessRunner.Handle handle)
+            throws IOException, InterruptedException, DefaultException {
+        String pyPath = "/opt/utils/anonymization-v" + ANONYMIZATION_VERSION + ".py";
+        Path scriptOutput = Paths.get(output.getPath() + ".out");
+        try {
+            int exitVal = pythonWorkerBusiness.run(pyPath, List.of("--input", inputPath, "--k", k), scriptOutput, handle);
+            if (exitVal != 0) {
+                throw new DefaultException(Files.readString(scriptOutput, StandardCharsets.UTF_8));
+            }
+            return copyScriptOutput(scriptOutput, output, includeMetrics);
+        } finally {
+            Files.deleteIfExists(scriptOutput);
+        }
+    }
+
+    private static long copyScriptOutput(Path scriptOutput, File output, boolean includeMetrics) throws IOException {
+        long lines = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(scriptOutput), 1 << 16);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 1 << 16)) {
+            //the first line is the Performance-Metrics line
+            int b;
+            while ((b = in.read()) >= 0) {
+                if (includeMetrics) {
+                    out.write(b);
+                }
+                if (b == '\n') {
+                    break;
+                }
+            }
+
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            int last = '\n';
+            while ((read = in.read(buffer)) >= 0) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        lines++;
+                    }
+                }
+                if (read > 0) {
+                    last = buffer[read - 1];
+                    out.write(buffer, 0, read);
+                }
+            }
+            if (last != '\n') {
+                lines++;
+            }
+        }
+        //the csv header is not a data point
+        return Math.max(0, lines - 1);
+    }
+}
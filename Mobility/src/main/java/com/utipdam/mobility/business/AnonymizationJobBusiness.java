@@ -0,0 +1,253 @@
+package com.utipdam.mobility.business;
+
+import com.utipdam.csv.CompressedCsv;
+import com.utipdam.csv.DatasetLocator;
+import com.utipdam.mobility.config.BoundedExecutor;
+import com.utipdam.mobility.config.BusinessService;
+import com.utipdam.mobility.exception.DefaultException;
+import com.utipdam.mobility.model.AnonymizationJobDTO;
+import com.utipdam.mobility.model.entity.AnonymizationJob;
+import com.utipdam.mobility.model.entity.Dataset;
+import com.utipdam.mobility.model.entity.DatasetDefinition;
+import com.utipdam.mobility.model.entity.JobStatus;
+import com.utipdam.mobility.model.service.AnonymizationJobService;
+import jakarta.annotation.PostConstruct;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+
+@BusinessService
+public class AnonymizationJobBusiness {
+    private static final Logger logger = LoggerFactory.getLogger(AnonymizationJobBusiness.class);
+
+    @Autowired
+    private AnonymizationJobService anonymizationJobService;
+
+    @Autowired
+    private AnonymizationBusiness anonymizationBusiness;
+
+    @Autowired
+    private DatasetBusiness datasetBusiness;
+
+    @Autowired
+    private MDSBusiness mdsBusiness;
+
+    @Autowired
+    private TraceIndexBusiness traceIndexBusiness;
+
+    @Autowired
+    private DatasetLocator datasetLocator;
+
+    @Autowired
+    @Qualifier("anonymizationJobExecutor")
+    private BoundedExecutor anonymizationJobExecutor;
+
+    //places left in the job queue, taken when a job is submitted and given back when it starts, so that the jobs of a
+    //split upload are queued all together or not at all and the executor itself never rejects one
+    private Semaphore queueSlots;
+
+    @PostConstruct
+    public void init() {
+        queueSlots = new Semaphore(anonymizationJobExecutor.getQueueCapacity());
+    }
+
+    //queues the anonymization of an uploaded file, throws TaskRejectedException when the job queue is full
+    public AnonymizationJob submit(DatasetDefinition ds, Long userId, String uploadPath, String sha256, String csvDate,
+                                   Integer k, String resolution, boolean publishMDS) {
+        AnonymizationJob job = save(ds, userId, sha256, k, resolution);
+        if (!queueSlots.tryAcquire()) {
+            new File(uploadPath).delete();
+            fail(job, "Job queue is full");
+            throw new TaskRejectedException("Job queue is full");
+        }
+        try {
+            queue(job, ds, uploadPath, csvDate, publishMDS);
+        } catch (RuntimeException e) {
+            queueSlots.release();
+            new File(uploadPath).delete();
+            fail(job, "Job queue is full");
+            throw e;
+        }
+        return job;
+    }
+
+    //queues one job per day of a split upload, all of them or none when the job queue cannot take them
+    public List<AnonymizationJob> submitAll(DatasetDefinition ds, Long userId, SortedMap<LocalDate, Path> uploads,
+                                            Integer k, String resolution) {
+        if (!queueSlots.tryAcquire(uploads.size())) {
+            uploads.values().forEach(upload -> upload.toFile().delete());
+            throw new TaskRejectedException("Job queue is full");
+        }
+        List<AnonymizationJob> jobs = new ArrayList<>();
+        try {
+            for (Map.Entry<LocalDate, Path> upload : uploads.entrySet()) {
+                AnonymizationJob job = save(ds, userId, null, k, resolution);
+                try {
+                    queue(job, ds, upload.getValue().toString(), upload.getKey().toString(), false);
+                } catch (RuntimeException e) {
+                    fail(job, "Job queue is full");
+                    throw e;
+                }
+                jobs.add(job);
+            }
+        } catch (RuntimeException e) {
+            //the days not queued give back their slots and their files
+            queueSlots.release(uploads.size() - jobs.size());
+            uploads.values().stream().skip(jobs.size()).forEach(upload -> upload.toFile().delete());
+            throw e;
+        }
+        return jobs;
+    }
+
+    private AnonymizationJob save(DatasetDefinition ds, Long userId, String sha256, Integer k, String resolution) {
+        AnonymizationJob job = new AnonymizationJob();
+        job.setId(UUID.randomUUID());
+        job.setDatasetDefinitionId(ds.getId());
+        job.setUserId(userId);
+        job.setSha256(sha256);
+        job.setK(k);
+        job.setResolution(resolution);
+        return anonymizationJobService.save(job);
+    }
+
+    //the caller holds a queue slot for the job, the executor only rejects it once it is shut down
+    private void queue(AnonymizationJob job, DatasetDefinition ds, String uploadPath, String csvDate, boolean publishMDS) {
+        anonymizationJobExecutor.execute(() -> {
+            queueSlots.release();
+            run(job, ds, uploadPath, csvDate, publishMDS);
+        });
+    }
+
+    public Optional<AnonymizationJob> getById(UUID id) {
+        return anonymizationJobService.findById(id);
+    }
+
+    public AnonymizationJobDTO toDTO(AnonymizationJob job) {
+        Dataset dataset = job.getDatasetId() == null ? null : datasetBusiness.getById(job.getDatasetId()).orElse(null);
+        return new AnonymizationJobDTO(job, dataset);
+    }
+
+    public Path getResultPath(AnonymizationJob job) {
+        return Paths.get("/data/mobility/" + job.getDatasetDefinitionId(), job.getFileName());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void failInterruptedJobs() {
+        List<AnonymizationJob> jobs = anonymizationJobService.findAllByStatus(List.of(JobStatus.QUEUED, JobStatus.RUNNING));
+        for (AnonymizationJob job : jobs) {
+            fail(job, "Interrupted by server restart");
+        }
+    }
+
+    private void run(AnonymizationJob job, DatasetDefinition ds, String uploadPath, String csvDate, boolean publishMDS) {
+        String path = "/data/mobility/" + ds.getId();
+        UUID uuid = UUID.randomUUID();
+        String strOutPath = path + "/dataset-" + uuid + "-.csv";
+        File fi = new File(strOutPath);
+        Path datasetPath = null;
+        try {
+            job.setStatus(JobStatus.RUNNING);
+            job.setStartedAt(new Timestamp(System.currentTimeMillis()));
+            job.setProgress(10);
+            anonymizationJobService.save(job);
+
+            long dataPoints = anonymizationBusiness.anonymize(uploadPath, String.valueOf(job.getK()), fi, false);
+            job.setProgress(70);
+            anonymizationJobService.save(job);
+
+            String fileName = "dataset-" + uuid + "-" + csvDate + ".csv";
+            datasetPath = Paths.get(path + "/" + fileName);
+            Files.move(fi.toPath(), datasetPath, StandardCopyOption.REPLACE_EXISTING);
+            compress(datasetPath);
+            locate(datasetPath);
+            traceIndexBusiness.build(datasetPath, uuid);
+
+            logger.info("dataPoints:" + dataPoints);
+            Dataset d = new Dataset();
+            d.setId(uuid);
+            d.setDatasetDefinition(ds);
+            d.setStartDate(Date.valueOf(csvDate));
+            d.setEndDate(Date.valueOf(csvDate));
+            d.setResolution(job.getResolution());
+            d.setK(job.getK());
+            d.setDataPoints(dataPoints);
+            datasetBusiness.save(d);
+            job.setProgress(90);
+            job.setDatasetId(uuid);
+            job.setFileName(fileName);
+            anonymizationJobService.save(job);
+
+            if (publishMDS) {
+                mdsBusiness.publishAsync(ds);
+            }
+
+            job.setStatus(JobStatus.COMPLETED);
+            job.setProgress(100);
+            job.setFinishedAt(new Timestamp(System.currentTimeMillis()));
+            anonymizationJobService.save(job);
+        } catch (DefaultException e) {
+            cleanUp(job, fi, datasetPath);
+            fail(job, e.getLocalizedMessage());
+        } catch (IOException | RuntimeException e) {
+            cleanUp(job, fi, datasetPath);
+            fail(job, e.getMessage());
+        } catch (InterruptedException e) {
+            cleanUp(job, fi, datasetPath);
+            fail(job, "Interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            new File(uploadPath).delete();
+        }
+    }
+
+    //the gzip copy the downloads send, a dataset without one is still stored and the copy written by its first download
+    private void compress(Path datasetPath) {
+        try {
+            CompressedCsv.write(datasetPath);
+        } catch (IOException e) {
+            logger.error("gzip copy of " + datasetPath + " not written: " + e.getMessage());
+        }
+    }
+
+    //found by downloads and queries without listing the directory, the watcher of the index records it otherwise
+    private void locate(Path datasetPath) {
+        try {
+            datasetLocator.record(datasetPath);
+        } catch (IOException e) {
+            logger.error("dataset index of " + datasetPath.getParent() + " not updated: " + e.getMessage());
+        }
+    }
+
+    private void cleanUp(AnonymizationJob job, File output, Path datasetPath) {
+        output.delete();
+        if (datasetPath != null && job.getDatasetId() == null) {
+            datasetPath.toFile().delete();
+            CompressedCsv.pathOf(datasetPath).toFile().delete();
+        }
+    }
+
+    private void fail(AnonymizationJob job, String message) {
+        logger.error("job " + job.getId() + " failed: " + message);
+        job.setStatus(JobStatus.FAILED);
+        job.setMessage(StringUtils.abbreviate(message, 1000));
+        job.setFinishedAt(new Timestamp(System.currentTimeMillis()));
+        anonymizationJobService.save(job);
+    }
+}
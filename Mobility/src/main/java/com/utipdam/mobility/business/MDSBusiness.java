@@ -3,7 +3,9 @@ package com.utipdam.mobility.business;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.utipdam.engine.ProcessRunner;
 import com.utipdam.mobility.SendEmail;
+import com.utipdam.mobility.config.BoundedExecutor;
 import com.utipdam.mobility.config.BusinessService;
 import com.utipdam.mobility.model.Email;
 import com.utipdam.mobility.model.entity.DatasetDefinition;
@@ -13,15 +15,17 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.*;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestTemplate;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.time.Duration;
+import java.util.List;
 
 @BusinessService
 public class MDSBusiness {
@@ -42,12 +46,62 @@ public class MDSBusiness {
     @Value("${mds.app.env}")
     private String MDS_ENV;
 
+    //deadline of the access token request
+    @Value("${mds.app.timeoutMs:30000}")
+    private long MDS_TIMEOUT_MS;
+
     @Value("${utipdam.app.domain}")
     private String DOMAIN;
 
     @Autowired
     private SendEmail sendEmail;
 
+    @Autowired
+    @Qualifier("outboundExecutor")
+    private BoundedExecutor outboundExecutor;
+
+    @Autowired
+    @Qualifier("emailExecutor")
+    private BoundedExecutor emailExecutor;
+
+    //publish() on the outbound pool, the caller does not wait for MDS
+    public void publishAsync(DatasetDefinition ds) {
+        try {
+            outboundExecutor.execute(() -> publish(ds));
+        } catch (TaskRejectedException e) {
+            logger.error("MDS publish of " + ds.getId() + " rejected, outbound queue is full");
+        }
+    }
+
+    //gets an access token and creates the asset on the outbound pool
+    public void createAssetAsync(DatasetDefinition ds) {
+        try {
+            outboundExecutor.execute(() -> {
+                String accessToken = getAuthenticationToken();
+                logger.info(accessToken);
+                if (accessToken != null) {
+                    createAsset(ds, accessToken);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            logger.error("MDS asset of " + ds.getId() + " rejected, outbound queue is full");
+        }
+    }
+
+    public void publish(DatasetDefinition ds) {
+        if (ds.getPublishMDS()) {
+            ///////////////////////////////////////////////////////////////////////////////////////
+            //This section is for publishing dataset to Mobility Data Spaces data catalog using API
+            //See /opt/mobility-app.properties file
+            String accessToken = getAuthenticationToken();
+            logger.info(accessToken);
+            if (accessToken != null) {
+                createAsset(ds, accessToken);
+            }
+            ///////////////////////////////////////////////////////////////////////////////////////
+        }
+    }
+
     public void createAsset(DatasetDefinition ds, String accessToken) {
 
         if (MDS_MANAGEMENT_API == null) {
@@ -165,9 +219,15 @@ public class MDSBusiness {
             email.setSubject("[UtiP-DAM] Dataset Published to Mobility Data Spaces");
             String url = MDS_ENV.equals("prod") ? "https://catalog-next.mobility-dataspace.eu" : "https://catalog-next.test.mobility-dataspace.eu";
             email.setMessage("Your dataset " + ds.getName() + " connector endpoint is now available at Mobility Data Spaces " + url + "<br/>");
-            String responseMsg = sendEmail.send(email);
-            if (responseMsg.equals("Successfully sent")) {
-                logger.info("Published to MDS email sent.");
+            try {
+                emailExecutor.execute(() -> {
+                    String responseMsg = sendEmail.send(email);
+                    if (responseMsg.equals("Successfully sent")) {
+                        logger.info("Published to MDS email sent.");
+                    }
+                });
+            } catch (TaskRejectedException e) {
+                logger.error("Published to MDS email rejected, email queue is full");
             }
         } catch (HttpClientErrorException | HttpServerErrorException | JSONException e) {
             logger.error(e.getMessage());
@@ -177,29 +237,27 @@ public class MDSBusiness {
 
     public String getAuthenticationToken() {
         try {
-            ProcessBuilder processBuilder = new ProcessBuilder("curl", "-s", "-d", "grant_type=client_credentials", "-d",
-                    "client_id=" + MDS_CLIENT_ID, "-d", "client_secret=" + MDS_CLIENT_SECRET, MDS_ACCESS_TOKEN_URL);
-            processBuilder.redirectErrorStream(true);
-            Process process = processBuilder.start();
-
-            BufferedReader reader =
-                    new BufferedReader(new InputStreamReader(process.getInputStream()));
+            ProcessRunner.Result result = ProcessRunner.run(List.of("curl", "-s", "-d", "grant_type=client_credentials", "-d",
+                    "client_id=" + MDS_CLIENT_ID, "-d", "client_secret=" + MDS_CLIENT_SECRET, MDS_ACCESS_TOKEN_URL),
+                    Duration.ofMillis(MDS_TIMEOUT_MS), null);
 
-            // wait for the child process *after*
-            // reading all its output
-            int exitVal = process.waitFor();
-
-            if (exitVal == 0) {
-                String result = getResult(reader);
+            if (result.getExitCode() == 0) {
                 try {
-                    JSONObject jsonObject = new JSONObject(result);
+                    JSONObject jsonObject = new JSONObject(result.getStdout());
                     return jsonObject.getString("access_token");
                 } catch (JSONException err) {
                     logger.error(err.getMessage());
                 }
+            } else if (result.isTimedOut()) {
+                logger.error("MDS access token request timed out");
+            } else {
+                logger.error(result.getStdout() + result.getStderr());
             }
-        } catch (InterruptedException | IOException e) {
+        } catch (IOException e) {
             logger.error(e.getMessage());
+        } catch (InterruptedException e) {
+            logger.error(e.getMessage());
+            Thread.currentThread().interrupt();
         }
         return null;
     }
@@ -248,19 +306,4 @@ public class MDSBusiness {
     private String getUri(Boolean isInternal, String domain) {
         return isInternal ? (domain + "/internal/mobility") : (DOMAIN + "/api/mobility");
     }
-
-    private String getResult(BufferedReader reader) {
-        StringBuilder builder = new StringBuilder();
-        String line;
-        try {
-            while ((line = reader.readLine()) != null) {
-                builder.append(line);
-                builder.append(System.lineSeparator());
-            }
-
-        } catch (IOException e) {
-            logger.error(e.getMessage());
-        }
-        return builder.toString();
-    }
 }
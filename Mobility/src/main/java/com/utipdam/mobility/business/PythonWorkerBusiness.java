@@ -0,0 +1,234 @@
+package com.utipdam.mobility.business;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.utipdam.engine.ProcessRunner;
+import com.utipdam.engine.ProcessTimeoutException;
+import com.utipdam.mobility.config.BusinessService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+//pool of long-lived python3 processes running python-worker.py, which keeps pandas imported between script runs
+@BusinessService
+public class PythonWorkerBusiness {
+    private static final Logger logger = LoggerFactory.getLogger(PythonWorkerBusiness.class);
+
+    //0 starts a new interpreter for every script run
+    @Value("${utipdam.app.pythonWorkers:2}")
+    private int WORKERS;
+
+    @Value("${utipdam.app.pythonWorker:/opt/utils/python-worker.py}")
+    private String WORKER_SCRIPT;
+
+    //a worker is replaced after this many runs so memory the scripts leave behind is released
+    @Value("${utipdam.app.pythonWorkerMaxJobs:100}")
+    private int MAX_JOBS;
+
+    //how long a run waits for a free worker before it is rejected
+    @Value("${utipdam.app.pythonWorkerWaitMs:30000}")
+    private long WAIT_MS;
+
+    //a script still running after this long is killed, with its worker
+    @Value("${utipdam.app.scriptTimeoutMs:600000}")
+    private long SCRIPT_TIMEOUT_MS;
+
+    //idle workers are pinged before use when they have not run anything for this long
+    @Value("${utipdam.app.pythonWorkerHealthCheckMs:60000}")
+    private long HEALTH_CHECK_MS;
+
+    private static final long HEALTH_CHECK_TIMEOUT_MS = 5000;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final LinkedBlockingDeque<Worker> idle = new LinkedBlockingDeque<>();
+    private Semaphore permits;
+
+    @PostConstruct
+    public void init() {
+        permits = new Semaphore(Math.max(WORKERS, 0), true);
+        for (int i = 0; i < WORKERS; i++) {
+            try {
+                idle.add(new Worker());
+            } catch (IOException e) {
+                logger.error("python worker not started: " + e.getMessage());
+                break;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        Worker worker;
+        while ((worker = idle.poll()) != null) {
+            worker.destroy();
+        }
+    }
+
+    //runs the script with its stdout and stderr written to output and returns its exit code,
+    //throws TaskRejectedException when every worker stays busy for longer than the wait and ProcessTimeoutException on timeout.
+    //cancelling handle kills the script, a worker running it is replaced
+    public int run(String script, List<String> args, Path output, ProcessRunner.Handle handle) throws IOException, InterruptedException {
+        if (WORKERS <= 0) {
+            return runProcess(script, args, output, handle);
+        }
+        if (!permits.tryAcquire(WAIT_MS, TimeUnit.MILLISECONDS)) {
+            throw new TaskRejectedException("All python workers are busy");
+        }
+        Worker worker = null;
+        try {
+            if (handle != null && handle.isCancelled()) {
+                throw new IOException("Cancelled");
+            }
+            worker = acquire();
+            int exitCode = worker.run(script, args, output, handle);
+            if (worker.jobs >= MAX_JOBS) {
+                worker.destroy();
+            } else {
+                idle.addFirst(worker);
+            }
+            worker = null;
+            return exitCode;
+        } finally {
+            if (worker != null) {
+                worker.destroy();
+            }
+            permits.release();
+        }
+    }
+
+    //the most recently used idle worker, or a new one
+    private Worker acquire() throws IOException, InterruptedException {
+        Worker worker;
+        while ((worker = idle.pollFirst()) != null) {
+            boolean healthy;
+            try {
+                healthy = worker.isHealthy();
+            } catch (InterruptedException e) {
+                worker.destroy();
+                throw e;
+            }
+            if (healthy) {
+                return worker;
+            }
+            logger.error("python worker failed its health check, replacing it");
+            worker.destroy();
+        }
+        return new Worker();
+    }
+
+    private int runProcess(String script, List<String> args, Path output, ProcessRunner.Handle handle)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of("python3", script));
+        command.addAll(args);
+        ProcessRunner.Result result = ProcessRunner.run(command, Duration.ofMillis(SCRIPT_TIMEOUT_MS), output.toFile(), handle);
+        if (result.isTimedOut()) {
+            throw new ProcessTimeoutException("Timed out after " + SCRIPT_TIMEOUT_MS / 1000 + " s");
+        }
+        return result.getExitCode();
+    }
+
+    private class Worker {
+        private final Process process;
+        private final BufferedWriter requests;
+        private final BufferedReader replies;
+        private int jobs;
+        private long lastUsed;
+
+        Worker() throws IOException {
+            ProcessBuilder processBuilder = new ProcessBuilder("python3", WORKER_SCRIPT);
+            processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = processBuilder.start();
+            requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            replies = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            lastUsed = System.currentTimeMillis();
+        }
+
+        //a cancelled run kills the worker, which run(...) then destroys instead of returning it to the pool
+        int run(String script, List<String> args, Path output, ProcessRunner.Handle handle) throws IOException, InterruptedException {
+            Map<String, Object> request = new LinkedHashMap<>();
+            request.put("script", script);
+            request.put("args", args);
+            request.put("output", output.toAbsolutePath().toString());
+            jobs++;
+            long start = System.nanoTime();
+            long cpu = ProcessRunner.cpuNanos(process.toHandle());
+            int exitCode;
+            if (handle != null) {
+                handle.attach(process);
+            }
+            try {
+                exitCode = send(request, Duration.ofMillis(SCRIPT_TIMEOUT_MS));
+            } catch (IOException e) {
+                if (handle != null && handle.isCancelled()) {
+                    throw new IOException("Cancelled", e);
+                }
+                throw e;
+            } finally {
+                if (handle != null) {
+                    handle.detach();
+                }
+            }
+            logger.info(script + " exit " + exitCode + ", wall " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) +
+                    " ms, cpu " + TimeUnit.NANOSECONDS.toMillis(ProcessRunner.cpuNanos(process.toHandle()) - cpu) + " ms");
+            return exitCode;
+        }
+
+        boolean isHealthy() throws InterruptedException {
+            if (!process.isAlive()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - lastUsed < HEALTH_CHECK_MS) {
+                return true;
+            }
+            try {
+                return send(Map.of("ping", true), Duration.ofMillis(HEALTH_CHECK_TIMEOUT_MS)) == 0;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        //a worker that misses the deadline or whose caller is interrupted is killed
+        private int send(Map<String, Object> request, Duration timeout) throws IOException, InterruptedException {
+            requests.write(mapper.writeValueAsString(request));
+            requests.newLine();
+            requests.flush();
+            String reply = ProcessRunner.await(process, replies::readLine, timeout);
+            if (reply == null) {
+                throw new IOException("python worker exited with " + exitValue());
+            }
+            lastUsed = System.currentTimeMillis();
+            JsonNode node = mapper.readTree(reply);
+            return node.get("exit").asInt();
+        }
+
+        private String exitValue() {
+            try {
+                return process.waitFor(5, TimeUnit.SECONDS) ? String.valueOf(process.exitValue()) : "unknown";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "unknown";
+            }
+        }
+
+        void destroy() {
+            try {
+                requests.close();
+            } catch (IOException e) {
+                logger.error("python worker: " + e.getMessage());
+            }
+            ProcessRunner.killTree(process);
+        }
+    }
+}
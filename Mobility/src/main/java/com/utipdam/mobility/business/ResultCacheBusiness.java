@@ -0,0 +1,167 @@
+package com.utipdam.mobility.business;
+
+import com.utipdam.mobility.config.BusinessService;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+//disk-backed results of anonymize and audit calls keyed by input SHA-256, parameters and engine version, evicted least recently used first
+@BusinessService
+public class ResultCacheBusiness {
+    private static final Logger logger = LoggerFactory.getLogger(ResultCacheBusiness.class);
+
+    @Value("${utipdam.app.cacheDirectory:/tmp/utipdam-cache}")
+    private String CACHE_DIRECTORY;
+
+    //0 disables the cache
+    @Value("${utipdam.app.cacheMaxBytes:1073741824}")
+    private long CACHE_MAX_BYTES;
+
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    @PostConstruct
+    public synchronized void init() {
+        try {
+            Path directory = Files.createDirectories(Paths.get(CACHE_DIRECTORY));
+            File[] files = directory.toFile().listFiles();
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File file : files) {
+                if (file.getName().endsWith(".tmp")) {
+                    file.delete();
+                } else {
+                    entries.put(file.getName(), file.length());
+                    bytes += file.length();
+                }
+            }
+            evict();
+        } catch (IOException e) {
+            logger.error("result cache disabled: " + e.getMessage());
+            CACHE_MAX_BYTES = 0;
+        }
+    }
+
+    public static String key(String operation, String sha256, String... parameters) {
+        String key = operation + "-" + sha256 + "-" + String.join("-", parameters);
+        return key.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    //links the cached result to target, which stays readable when the entry is evicted, false on a miss. the lock only
+    //covers the bookkeeping, a result copied to another file system does not hold up the other requests
+    public boolean get(String key, Path target) {
+        Path file = path(key);
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                misses++;
+                return false;
+            }
+        }
+        try {
+            linkOrCopy(file, target);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            synchronized (this) {
+                //deleted behind the cache's back, an entry evicted or replaced meanwhile is left alone
+                Long size = entries.get(key);
+                if (size != null && !Files.exists(file)) {
+                    entries.remove(key);
+                    bytes -= size;
+                }
+                misses++;
+            }
+            if (!(e instanceof NoSuchFileException)) {
+                logger.error("result cache: " + e.getMessage());
+            }
+            //the caller writes the result to target on a miss, which must not be a link to the cached file
+            try {
+                Files.deleteIfExists(target);
+            } catch (IOException ex) {
+                logger.error("result cache: " + ex.getMessage());
+            }
+            return false;
+        }
+        synchronized (this) {
+            hits++;
+        }
+        return true;
+    }
+
+    //the result is linked or copied to a file of its own first, only the rename and the bookkeeping hold the lock
+    public void put(String key, Path result) {
+        Path tmp = path(key + "." + UUID.randomUUID() + ".tmp");
+        try {
+            long size = Files.size(result);
+            if (size > CACHE_MAX_BYTES) {
+                return;
+            }
+            linkOrCopy(result, tmp);
+            synchronized (this) {
+                Files.move(tmp, path(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Long old = entries.put(key, size);
+                bytes += size - (old == null ? 0 : old);
+                evict();
+            }
+        } catch (IOException e) {
+            logger.error("result cache: " + e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                logger.error("result cache: " + e.getMessage());
+            }
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRatio", hits + misses == 0 ? 0 : Math.round(hits * 10000.0 / (hits + misses)) / 100.0);
+        stats.put("evictions", evictions);
+        stats.put("entries", entries.size());
+        stats.put("bytes", bytes);
+        stats.put("maxBytes", CACHE_MAX_BYTES);
+        return stats;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (bytes > CACHE_MAX_BYTES && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            try {
+                Files.deleteIfExists(path(entry.getKey()));
+            } catch (IOException e) {
+                logger.error("result cache: " + e.getMessage());
+            }
+            bytes -= entry.getValue();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private Path path(String key) {
+        return Paths.get(CACHE_DIRECTORY, key);
+    }
+
+    //a hard link costs no copy, different file systems fall back to copying
+    private static void linkOrCopy(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.utipdam.mobility.business;
+
+import com.utipdam.csv.DatasetLocator;
+import com.utipdam.engine.TraceIndex;
+import com.utipdam.engine.TraceStore;
+import com.utipdam.mobility.SingleFlightCache;
+import com.utipdam.mobility.config.BusinessService;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+//trace stores and indexes of the dataset files, written when a dataset is stored. the indexes of the most recently queried
+//datasets and the most recent visitorDetection counts are kept in memory
+@BusinessService
+public class TraceIndexBusiness {
+    private static final Logger logger = LoggerFactory.getLogger(TraceIndexBusiness.class);
+
+    //number of datasets whose index stays loaded
+    @Value("${utipdam.app.traceIndexCacheSize:32}")
+    private int CACHE_SIZE;
+
+    //number of visitorDetection counts kept, per dataset and location sequence
+    @Value("${utipdam.app.detectionCacheSize:10000}")
+    private int DETECTION_CACHE_SIZE;
+
+    @Autowired
+    @Qualifier("engineForkJoinPool")
+    private ForkJoinPool engineForkJoinPool;
+
+    @Autowired
+    private DatasetLocator datasetLocator;
+
+    private SingleFlightCache<UUID, TraceIndex> indexes;
+
+    private SingleFlightCache<CountKey, Integer> counts;
+
+    @PostConstruct
+    public void init() {
+        indexes = new SingleFlightCache<>(CACHE_SIZE);
+        counts = new SingleFlightCache<>(DETECTION_CACHE_SIZE);
+    }
+
+    //a dataset whose index could not be built is still stored, the index is then built on its first query
+    public void build(Path datasetFile, UUID datasetId) {
+        Path directory = datasetFile.getParent();
+        evict(datasetId);
+        try {
+            long start = System.currentTimeMillis();
+            //a re-uploaded dataset replaces the store of the previous file
+            TraceStore.write(datasetFile, TraceStore.pathOf(directory, datasetId.toString()), pool());
+            TraceIndex index = build(directory, datasetId, datasetFile);
+            indexes.put(datasetId, index);
+            counts.invalidate(key -> key.datasetId().equals(datasetId));
+            logger.info("trace index of " + datasetId + ": " + index.getSequenceCount() + " sequences in " +
+                    (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            logger.error("trace index of " + datasetId + " not built: " + e.getMessage());
+            try {
+                Files.deleteIfExists(TraceStore.pathOf(directory, datasetId.toString()));
+                Files.deleteIfExists(TraceIndex.pathOf(directory, datasetId.toString()));
+            } catch (IOException ex) {
+                logger.error(ex.getMessage());
+            }
+            evict(datasetId);
+        }
+    }
+
+    //the loaded index, else the stored one, else one built from the trace store or the dataset file (or its gzip copy), null
+    //when there is no dataset file. concurrent queries of a dataset whose index is not loaded wait for one load
+    public TraceIndex get(UUID datasetDefinitionId, UUID datasetId) throws IOException {
+        return indexes.get(datasetId, () -> {
+            Path directory = Paths.get("/data/mobility/" + datasetDefinitionId);
+            Path indexFile = TraceIndex.pathOf(directory, datasetId.toString());
+            if (Files.exists(indexFile)) {
+                return TraceIndex.read(indexFile);
+            }
+            DatasetLocator.Location location = datasetLocator.find(datasetDefinitionId.toString(), datasetId.toString());
+            if (location == null) {
+                return null;
+            }
+            return build(directory, datasetId, location.file());
+        });
+    }
+
+    //visitors of a public dataset whose sequence contains locationIds, null when there is no dataset file
+    public Integer count(UUID datasetDefinitionId, UUID datasetId, int[] locationIds) throws IOException {
+        return count(datasetId, locationIds, () -> {
+            TraceIndex index = get(datasetDefinitionId, datasetId);
+            return index == null ? null : index.count(locationIds);
+        });
+    }
+
+    //the cached count, else the one of the request already counting the same sequence, else the one counted by loader
+    public Integer count(UUID datasetId, int[] locationIds, SingleFlightCache.Loader<Integer> loader) throws IOException {
+        return counts.get(new CountKey(datasetId, Arrays.stream(locationIds).boxed().toList()), loader);
+    }
+
+    //the trace store of the dataset, written from the dataset file when it is missing. the caller closes it
+    public TraceStore getStore(Path directory, UUID datasetId, Path datasetFile) throws IOException {
+        Path storeFile = TraceStore.pathOf(directory, datasetId.toString());
+        if (!Files.exists(storeFile)) {
+            TraceStore.write(datasetFile, storeFile, pool());
+        }
+        return TraceStore.open(storeFile);
+    }
+
+    //large files are parsed in chunks on the engine pool when the engine runs in parallel
+    private ForkJoinPool pool() {
+        return engineForkJoinPool.getParallelism() > 1 ? engineForkJoinPool : null;
+    }
+
+    private TraceIndex build(Path directory, UUID datasetId, Path datasetFile) throws IOException {
+        TraceIndex index;
+        try (TraceStore store = getStore(directory, datasetId, datasetFile)) {
+            index = TraceIndex.build(store);
+        }
+        index.write(TraceIndex.pathOf(directory, datasetId.toString()));
+        return index;
+    }
+
+    //after a dataset is deleted or its file replaced
+    public void evict(UUID datasetId) {
+        indexes.invalidate(datasetId::equals);
+        counts.invalidate(key -> key.datasetId().equals(datasetId));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("indexes", indexes.getStats());
+        stats.put("counts", counts.getStats());
+        return stats;
+    }
+
+    private record CountKey(UUID datasetId, List<Integer> locationIds) {
+    }
+}
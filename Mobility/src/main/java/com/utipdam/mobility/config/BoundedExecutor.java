@@ -0,0 +1,36 @@
+package com.utipdam.mobility.config;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+//fixed size pool with a bounded queue for one workload class, tasks over the queue are rejected and counted
+public class BoundedExecutor extends ThreadPoolTaskExecutor {
+    private final AtomicLong rejected = new AtomicLong();
+
+    public BoundedExecutor(String name, int threads, int queueCapacity) {
+        setCorePoolSize(threads);
+        setMaxPoolSize(threads);
+        setQueueCapacity(queueCapacity);
+        setThreadNamePrefix(name + "-");
+        setWaitForTasksToCompleteOnShutdown(false);
+        setRejectedExecutionHandler((task, executor) -> {
+            rejected.incrementAndGet();
+            new ThreadPoolExecutor.AbortPolicy().rejectedExecution(task, executor);
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("threads", getMaxPoolSize());
+        stats.put("active", getActiveCount());
+        stats.put("queued", getQueueSize());
+        stats.put("queueCapacity", getQueueCapacity());
+        stats.put("completed", getThreadPoolExecutor().getCompletedTaskCount());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+}
@@ -0,0 +1,110 @@
+package com.utipdam.mobility.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ForkJoinPool;
+
+//one bounded pool per workload class so a slow MDS, a flood of downloads or a huge audit cannot starve the others
+@Configuration
+public class ExecutorConfig implements WebMvcConfigurer {
+    @Value("${utipdam.app.jobThreads:2}")
+    private int JOB_THREADS;
+
+    @Value("${utipdam.app.jobQueueCapacity:100}")
+    private int JOB_QUEUE_CAPACITY;
+
+    //threads of the java engine per file, 1 runs it serially and 0 uses every available processor
+    @Value("${utipdam.app.engineThreads:1}")
+    private int ENGINE_THREADS;
+
+    //anonymize, sweep and audit requests, 0 uses twice the number of processors
+    @Value("${utipdam.app.cpuThreads:0}")
+    private int CPU_THREADS;
+
+    @Value("${utipdam.app.cpuQueueCapacity:50}")
+    private int CPU_QUEUE_CAPACITY;
+
+    //local visitorDetection requests, kept off the cpu pool so a burst of anonymize calls does not hold up the lookups,
+    //0 uses the number of processors
+    @Value("${utipdam.app.visitorDetectionThreads:0}")
+    private int VISITOR_DETECTION_THREADS;
+
+    @Value("${utipdam.app.visitorDetectionQueueCapacity:100}")
+    private int VISITOR_DETECTION_QUEUE_CAPACITY;
+
+    //dataset downloads and streamed response bodies
+    @Value("${utipdam.app.downloadThreads:16}")
+    private int DOWNLOAD_THREADS;
+
+    @Value("${utipdam.app.downloadQueueCapacity:100}")
+    private int DOWNLOAD_QUEUE_CAPACITY;
+
+    //calls to the Internal servers and MDS
+    @Value("${utipdam.app.outboundThreads:8}")
+    private int OUTBOUND_THREADS;
+
+    @Value("${utipdam.app.outboundQueueCapacity:100}")
+    private int OUTBOUND_QUEUE_CAPACITY;
+
+    //days of a visitorDetection range searched at the same time, 0 uses every available processor
+    @Value("${utipdam.app.detectionThreads:0}")
+    private int DETECTION_THREADS;
+
+    @Value("${utipdam.app.emailThreads:2}")
+    private int EMAIL_THREADS;
+
+    @Value("${utipdam.app.emailQueueCapacity:50}")
+    private int EMAIL_QUEUE_CAPACITY;
+
+    @Bean(name = "anonymizationJobExecutor")
+    public BoundedExecutor anonymizationJobExecutor() {
+        return new BoundedExecutor("anonymization-job", JOB_THREADS, JOB_QUEUE_CAPACITY);
+    }
+
+    @Bean(name = "cpuExecutor")
+    public BoundedExecutor cpuExecutor() {
+        return new BoundedExecutor("cpu", CPU_THREADS > 0 ? CPU_THREADS : 2 * Runtime.getRuntime().availableProcessors(),
+                CPU_QUEUE_CAPACITY);
+    }
+
+    @Bean(name = "detectionExecutor")
+    public BoundedExecutor detectionExecutor() {
+        return new BoundedExecutor("detection", VISITOR_DETECTION_THREADS > 0 ? VISITOR_DETECTION_THREADS
+                : Runtime.getRuntime().availableProcessors(), VISITOR_DETECTION_QUEUE_CAPACITY);
+    }
+
+    @Bean(name = "downloadExecutor")
+    public BoundedExecutor downloadExecutor() {
+        return new BoundedExecutor("download", DOWNLOAD_THREADS, DOWNLOAD_QUEUE_CAPACITY);
+    }
+
+    @Bean(name = "outboundExecutor")
+    public BoundedExecutor outboundExecutor() {
+        return new BoundedExecutor("outbound", OUTBOUND_THREADS, OUTBOUND_QUEUE_CAPACITY);
+    }
+
+    @Bean(name = "emailExecutor")
+    public BoundedExecutor emailExecutor() {
+        return new BoundedExecutor("email", EMAIL_THREADS, EMAIL_QUEUE_CAPACITY);
+    }
+
+    @Bean(name = "engineForkJoinPool", destroyMethod = "shutdown")
+    public ForkJoinPool engineForkJoinPool() {
+        return new ForkJoinPool(ENGINE_THREADS > 0 ? ENGINE_THREADS : Runtime.getRuntime().availableProcessors());
+    }
+
+    @Bean(name = "detectionForkJoinPool", destroyMethod = "shutdown")
+    public ForkJoinPool detectionForkJoinPool() {
+        return new ForkJoinPool(DETECTION_THREADS > 0 ? DETECTION_THREADS : Runtime.getRuntime().availableProcessors());
+    }
+
+    //StreamingResponseBody and any async handler without its own pool run on the download pool
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(downloadExecutor());
+    }
+}
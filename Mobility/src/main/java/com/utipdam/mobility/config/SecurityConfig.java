@@ -74,6 +74,9 @@ public class SecurityConfig { // extends WebSecurityConfigurerAdapter {
                                 .requestMatchers(HttpMethod.DELETE, "/organization/*").authenticated()
                                 .requestMatchers(HttpMethod.POST, "/mobility/anonymizationJob").authenticated()
                                 .requestMatchers(HttpMethod.POST, "/mobility/anonymizationJob/*").authenticated()
+                                .requestMatchers(HttpMethod.POST, "/mobility/anonymizationJob/*/daily").authenticated()
+                                .requestMatchers(HttpMethod.GET, "/mobility/jobs/*").authenticated()
+                                .requestMatchers(HttpMethod.GET, "/mobility/jobs/*/result").authenticated()
                                 .requestMatchers(HttpMethod.PATCH, "/account").authenticated()
                                 .requestMatchers(HttpMethod.PATCH, "/accountPw").authenticated()
                                 .requestMatchers(HttpMethod.PATCH, "/deactivate").authenticated()
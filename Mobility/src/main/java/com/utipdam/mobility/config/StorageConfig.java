@@ -0,0 +1,16 @@
+package com.utipdam.mobility.config;
+
+import com.utipdam.csv.DatasetLocator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Paths;
+
+//the dataset files of every definition, under /data/mobility/<datasetDefinitionId>
+@Configuration
+public class StorageConfig {
+    @Bean(destroyMethod = "close")
+    public DatasetLocator datasetLocator() {
+        return new DatasetLocator(Paths.get("/data/mobility"));
+    }
+}
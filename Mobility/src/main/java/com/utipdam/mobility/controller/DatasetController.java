@@ -1,9 +1,14 @@
 package com.utipdam.mobility.controller;
 
+import com.utipdam.csv.CompressedCsv;
+import com.utipdam.csv.DatasetLocator;
+import com.utipdam.engine.TraceIndex;
+import com.utipdam.engine.TraceStore;
 import com.utipdam.mobility.business.DatasetDefinitionBusiness;
 import com.utipdam.mobility.business.DatasetBusiness;
 import com.utipdam.mobility.business.MDSBusiness;
 import com.utipdam.mobility.business.OrderBusiness;
+import com.utipdam.mobility.business.TraceIndexBusiness;
 import com.utipdam.mobility.config.AuthTokenFilter;
 import com.utipdam.mobility.exception.DefaultException;
 import com.utipdam.mobility.model.*;
@@ -23,6 +28,9 @@ import org.springframework.web.bind.annotation.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -44,6 +52,12 @@ public class DatasetController {
     @Autowired
     private MDSBusiness mdsBusiness;
 
+    @Autowired
+    private TraceIndexBusiness traceIndexBusiness;
+
+    @Autowired
+    private DatasetLocator datasetLocator;
+
     @Autowired
     UserRepository userRepository;
 
@@ -313,6 +327,8 @@ public class DatasetController {
                                                       @RequestBody DatasetDTO dataset) throws DefaultException {
         Map<String, Object> response = new HashMap<>();
         response.put("data", datasetBusiness.update(id, dataset));
+        //called by the Internal module after it replaced the dataset file
+        traceIndexBusiness.evict(id);
         return new ResponseEntity<>(response, HttpStatus.OK);
     }
 
@@ -393,6 +409,8 @@ public class DatasetController {
             if (checkInternal(datasetDef.getInternal())) {
                 delete(PATH + "/" + datasetDef.getId(), dataset);
             }
+            //counts of internal datasets are cached here too
+            traceIndexBusiness.evict(dataset.getId());
             return true;
         }
         return false;
@@ -418,14 +436,23 @@ public class DatasetController {
         return internal != null && !internal;
     }
 
+    //the dataset file, its gzip copy and its trace store and index
     private void delete(String path, Dataset dataset){
-        File files =  new File(path);
-        if (files.listFiles() != null) {
-            for (File f : Objects.requireNonNull(files.listFiles())) {
-                if (f.getName().contains(dataset.getId().toString())) {
-                    f.delete();
-                }
+        Path directory = Paths.get(path);
+        String definitionId = directory.getFileName().toString();
+        String datasetId = dataset.getId().toString();
+        try {
+            DatasetLocator.Location location = datasetLocator.find(definitionId, datasetId);
+            if (location != null) {
+                Path csv = location.file().resolveSibling(CompressedCsv.csvName(location.file()));
+                Files.deleteIfExists(csv);
+                Files.deleteIfExists(CompressedCsv.pathOf(csv));
             }
+            Files.deleteIfExists(TraceStore.pathOf(directory, datasetId));
+            Files.deleteIfExists(TraceIndex.pathOf(directory, datasetId));
+            datasetLocator.remove(definitionId, datasetId);
+        } catch (IOException e) {
+            logger.error(e.getMessage());
         }
     }
 
@@ -487,11 +514,7 @@ public class DatasetController {
     private void createAsset(Boolean publishMDS, DatasetDefinition d, DatasetDefinition dsSave){
         Boolean mdsOrigVal = d.getPublishMDS();
         if (publishMDS && !mdsOrigVal) {
-            String accessToken = mdsBusiness.getAuthenticationToken();
-            logger.info(accessToken);
-            if (accessToken != null) {
-                mdsBusiness.createAsset(dsSave, accessToken);
-            }
+            mdsBusiness.createAssetAsync(dsSave);
         }
     }
 
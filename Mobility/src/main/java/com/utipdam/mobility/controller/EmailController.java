@@ -1,14 +1,17 @@
 package com.utipdam.mobility.controller;
 
 import com.utipdam.mobility.SendEmail;
+import com.utipdam.mobility.config.BoundedExecutor;
 import com.utipdam.mobility.model.Email;
 import org.apache.commons.validator.routines.EmailValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncTask;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -20,8 +23,16 @@ public class EmailController {
     @Autowired
     private SendEmail sendEmail;
 
+    @Autowired
+    @Qualifier("emailExecutor")
+    private BoundedExecutor emailExecutor;
+
     @PostMapping("/email/send")
-    public ResponseEntity<Map<String, Object>> contactUs(@RequestBody Email email) {
+    public WebAsyncTask<ResponseEntity<Map<String, Object>>> contactUs(@RequestBody Email email) {
+        return new WebAsyncTask<>(null, emailExecutor, () -> send(email));
+    }
+
+    private ResponseEntity<Map<String, Object>> send(Email email) {
         Map<String, Object> response = new HashMap<>();
         if (email.getName() == null || email.getName().trim().isEmpty()) {
             logger.error("Name is required");
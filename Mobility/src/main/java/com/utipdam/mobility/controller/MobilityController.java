@@ -1,80 +1,102 @@
 package com.utipdam.mobility.controller;
 
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.hash.Hashing;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
-import com.opencsv.RFC4180Parser;
-import com.opencsv.RFC4180ParserBuilder;
-import com.opencsv.exceptions.CsvValidationException;
+import com.utipdam.csv.CompressedCsv;
+import com.utipdam.csv.DatasetLocator;
+import com.utipdam.engine.ProcessRunner;
+import com.utipdam.engine.ProcessTimeoutException;
+import com.utipdam.engine.TraceIndex;
+import com.utipdam.mobility.FileDownloadUtil;
 import com.utipdam.mobility.FileUploadUtil;
+import com.utipdam.mobility.business.AdmissionBusiness;
+import com.utipdam.mobility.business.AnonymizationBusiness;
+import com.utipdam.mobility.business.AnonymizationJobBusiness;
 import com.utipdam.mobility.business.DatasetDefinitionBusiness;
 import com.utipdam.mobility.business.DatasetBusiness;
-import com.utipdam.mobility.business.MDSBusiness;
 import com.utipdam.mobility.business.OrderBusiness;
+import com.utipdam.mobility.business.ResultCacheBusiness;
+import com.utipdam.mobility.business.TraceIndexBusiness;
 import com.utipdam.mobility.config.AuthTokenFilter;
-import com.utipdam.mobility.config.RestTemplateClient;
+import com.utipdam.mobility.config.BoundedExecutor;
+import com.utipdam.mobility.engine.AuditResult;
+import com.utipdam.mobility.engine.DailySplitter;
+import com.utipdam.mobility.engine.UploadSummary;
+import com.utipdam.mobility.exception.DefaultException;
 import com.utipdam.mobility.model.*;
 import com.utipdam.mobility.model.entity.*;
 import com.utipdam.mobility.model.repository.RoleRepository;
 import com.utipdam.mobility.model.repository.UserRepository;
-import org.apache.commons.io.filefilter.WildcardFileFilter;
-import org.apache.commons.validator.GenericValidator;
+import jakarta.servlet.http.HttpServletRequest;
+import org.apache.commons.io.input.CloseShieldInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.*;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.context.request.async.WebAsyncUtils;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.io.*;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.PosixFilePermissions;
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
 import java.sql.Date;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipInputStream;
 
 @RestController
 public class MobilityController {
     private static final Logger logger = LoggerFactory.getLogger(MobilityController.class);
-    private final String START_TIME = "first_time_seen";
-    private final String DATE_FORMAT = "yyyy-MM-dd";
     private final Integer HIGH_RISK = 10;
     private final Integer LOW_RISK = 50;
-    private final String[] NEW_CSV_FORMAT = {"dataset_id", "location_id", "anonymized_unique_id", "start_time", "end_time", "distance"};
+    private static final String TOO_MANY_REQUESTS = "Too many requests. Please try again later";
 
     @Value("${utipdam.app.maxFileSize}")
     private long MAX_FILE_SIZE;
 
-    @Value("${utipdam.app.anonymization}")
-    private String ANONYMIZATION_VERSION;
+    //location sequences one visitorDetection batch may ask for
+    @Value("${utipdam.app.maxBatchSequences:1000}")
+    private int MAX_BATCH_SEQUENCES;
 
-    @Value("${utipdam.app.audit}")
-    private String AUDIT_VERSION;
+    //days one visitorDetection range may span
+    @Value("${utipdam.app.maxDetectionDays:366}")
+    private int MAX_DETECTION_DAYS;
 
     @Autowired
     private DatasetDefinitionBusiness datasetDefinitionBusiness;
@@ -98,105 +120,313 @@ public class MobilityController {
     AuthenticationManager authenticationManager;
 
     @Autowired
-    private MDSBusiness mdsBusiness;
+    private AnonymizationBusiness anonymizationBusiness;
 
-    @PostMapping(value = {"/mobility/upload", "/mobility/anonymize"})
-    public ResponseEntity<?> anonymizeOnly(@RequestPart MultipartFile file,
-                                           @RequestPart String k) {
+    @Autowired
+    private AnonymizationJobBusiness anonymizationJobBusiness;
 
-        String errorMessage;
+    @Autowired
+    private ResultCacheBusiness resultCacheBusiness;
+
+    @Autowired
+    private AdmissionBusiness admissionBusiness;
 
+    @Autowired
+    private TraceIndexBusiness traceIndexBusiness;
+
+    @Autowired
+    private DatasetLocator datasetLocator;
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private ClientHttpRequestFactory internalRequestFactory;
+
+    @Autowired
+    @Qualifier("cpuExecutor")
+    private BoundedExecutor cpuExecutor;
+
+    @Autowired
+    @Qualifier("detectionExecutor")
+    private BoundedExecutor detectionExecutor;
+
+    @Autowired
+    @Qualifier("downloadExecutor")
+    private BoundedExecutor downloadExecutor;
+
+    @Autowired
+    @Qualifier("outboundExecutor")
+    private BoundedExecutor outboundExecutor;
+
+    @Autowired
+    @Qualifier("detectionForkJoinPool")
+    private ForkJoinPool detectionForkJoinPool;
+
+    @Autowired
+    private Map<String, BoundedExecutor> executors;
+
+    @PostMapping(value = {"/mobility/upload", "/mobility/anonymize"})
+    public CompletableFuture<ResponseEntity<?>> anonymizeOnly(@RequestPart MultipartFile file,
+                                                              @RequestPart String k,
+                                                              HttpServletRequest request) {
+        boolean gzip = FileDownloadUtil.acceptsGzip(request);
+        ProcessRunner.Handle handle = cancelOnDisconnect(request);
+        return dispatch(AdmissionBusiness.ANONYMIZE, TOO_MANY_REQUESTS, () -> anonymize(file, k, gzip, handle));
+    }
+
+    private CompletableFuture<ResponseEntity<?>> anonymize(MultipartFile file, String k, boolean gzip, ProcessRunner.Handle handle) {
         ResponseEntity<?> error = validate(file, k);
         if (error != null) {
-            return error;
+            return CompletableFuture.completedFuture(error);
         }
-        String strPath = null;
+        //anonymization process
+        UUID uuid = UUID.randomUUID();
+        String fileName = "upload-" + uuid + ".csv";
+        String path = "/tmp";
+        String strPath = path + "/" + fileName;
+        String strOutPath = path + "/dataset-" + uuid + ".csv";
+
+        File fi = new File(strOutPath);
+        String cacheKey;
         try {
-            StringBuffer inputBuffer = new StringBuffer();
+            //the native engine validates the rows itself, the script only gets checked rows
+            UploadSummary upload = FileUploadUtil.saveAndScanFile(fileName, file, Paths.get(path),
+                    !anonymizationBusiness.isNativeAnonymization());
+            cacheKey = ResultCacheBusiness.key("anonymize", upload.getSha256(), "k" + Integer.parseInt(k.trim()),
+                    anonymizationBusiness.getAnonymizationVersion());
+            if (resultCacheBusiness.get(cacheKey, fi.toPath())) {
+                logger.info("cache hit " + cacheKey);
+                return CompletableFuture.completedFuture(anonymized(fi, strPath, strOutPath, gzip));
+            }
+        } catch (DefaultException | IOException e) {
+            return CompletableFuture.completedFuture(anonymizeFailed(e, strPath, strOutPath));
+        }
 
-            //anonymization process
-            UUID uuid = UUID.randomUUID();
-            String fileName = "upload-" + uuid + ".csv";
-            String path = "/tmp";
-            strPath = path + "/" + fileName;
+        //only the engine run holds a permit
+        return admitted(AdmissionBusiness.ANONYMIZE, file.getSize(), permit -> {
+            try {
+                try (permit) {
+                    long dataPoints = anonymizationBusiness.anonymize(strPath, k, fi, true, handle);
+                    permit.finished();
+                    logger.info("dataPoints:" + dataPoints);
+                }
+                resultCacheBusiness.put(cacheKey, fi.toPath());
+                return anonymized(fi, strPath, strOutPath, gzip);
+            } catch (DefaultException | IOException | InterruptedException | TaskRejectedException e) {
+                return anonymizeFailed(e, strPath, strOutPath);
+            }
+        }, status -> {
+            deleteTempFile(strPath, strOutPath);
+            logger.error(TOO_MANY_REQUESTS);
+            return status.body(TOO_MANY_REQUESTS);
+        });
+    }
 
-            FileUploadUtil.saveFile(fileName, file, Paths.get(path));
+    //streams the anonymized csv after its metrics line and deletes the temp files afterwards
+    private ResponseEntity<?> anonymized(File fi, String strPath, String strOutPath, boolean gzip) throws IOException {
+        //the first line holds the metrics, the csv is streamed from the line after it
+        String firstLine = FileDownloadUtil.readFirstLine(fi.toPath());
+        long start = firstLine == null ? 0 : Math.min(firstLine.getBytes(StandardCharsets.UTF_8).length + 1, fi.length());
 
-            fileName = "dataset-" + uuid + ".csv";
-            String strOutPath = path + "/" + fileName;
+        HttpHeaders responseHeaders = new HttpHeaders();
+        if (firstLine != null) {
+            responseHeaders.add("Performance-Metrics", getMetrics(firstLine));
+        }
 
-            File fi = new File(strOutPath);
-            String pyPath = "/opt/utils/anonymization-v" + ANONYMIZATION_VERSION + ".py";
-            logger.info("version " + ANONYMIZATION_VERSION);
-            ProcessBuilder processBuilder = new ProcessBuilder("python3", pyPath, "--input", strPath, "--k", k);
-            processBuilder.redirectErrorStream(true);
-            processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(fi));
-            Process process = processBuilder.start();
+        ContentDisposition contentDisposition = ContentDisposition.builder("inline")
+                .filename("dataset.csv")
+                .build();
 
-            int exitVal = process.waitFor();
-            if (exitVal == 0) {
-                String line;
-                BufferedReader br = new BufferedReader(new FileReader(strOutPath));
-                long i = 0;
-                String firstLine = br.readLine();
+        responseHeaders.setContentDisposition(contentDisposition);
 
-                while ((line = br.readLine()) != null) {
-                    inputBuffer.append(line);
-                    inputBuffer.append('\n');
+        if (gzip) {
+            responseHeaders.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        } else {
+            responseHeaders.setContentLength(fi.length() - start);
+        }
+        responseHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
 
-                    i++;
-                }
+        StreamingResponseBody body = FileDownloadUtil.stream(fi.toPath(), start, gzip);
+        StreamingResponseBody cleanUp = out -> {
+            try {
+                body.writeTo(out);
+            } finally {
+                deleteTempFile(strPath, strOutPath);
+            }
+        };
+        return ResponseEntity.ok()
+                .headers(responseHeaders)
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(cleanUp);
+    }
 
-                logger.info("dataPoints:" + (i - 1));
+    private ResponseEntity<?> anonymizeFailed(Exception e, String strPath, String strOutPath) {
+        String errorMessage;
+        deleteTempFile(strPath, strOutPath);
+        if (e instanceof TaskRejectedException) {
+            errorMessage = "All anonymization workers are busy. Please try again later";
+            logger.error(errorMessage);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(errorMessage);
+        }
+        errorMessage = e.getLocalizedMessage();
+        logger.error(errorMessage);
+        return ResponseEntity.internalServerError().body(errorMessage);
+    }
 
-                HttpHeaders responseHeaders = new HttpHeaders();
-                if (firstLine != null) {
-                    responseHeaders.add("Performance-Metrics", getMetrics(firstLine));
-                }
-                String inputStr = inputBuffer.toString();
+    //the returned handle is cancelled, which kills the script of the request, when the async request fails, e.g. because
+    //the client has gone away, or times out
+    private static ProcessRunner.Handle cancelOnDisconnect(HttpServletRequest request) {
+        ProcessRunner.Handle handle = new ProcessRunner.Handle();
+        WebAsyncUtils.getAsyncManager(request).registerDeferredResultInterceptor(handle, new DeferredResultProcessingInterceptor() {
+            @Override
+            public <T> boolean handleTimeout(NativeWebRequest webRequest, DeferredResult<T> deferredResult) {
+                handle.cancel();
+                return true;
+            }
 
-                ContentDisposition contentDisposition = ContentDisposition.builder("inline")
-                        .filename("dataset.csv")
-                        .build();
+            @Override
+            public <T> boolean handleError(NativeWebRequest webRequest, DeferredResult<T> deferredResult, Throwable t) {
+                handle.cancel();
+                return true;
+            }
+        });
+        return handle;
+    }
 
-                responseHeaders.setContentDisposition(contentDisposition);
+    //runs the request on the cpu pool unless the limit and the queue of its workload are full already, so a request that
+    //would be turned away does not take a thread of the pool
+    private CompletableFuture<ResponseEntity<?>> dispatch(String workload, Object rejected,
+                                                          Supplier<CompletableFuture<ResponseEntity<?>>> request) {
+        if (!admissionBusiness.admits(workload)) {
+            logger.error(TOO_MANY_REQUESTS);
+            return CompletableFuture.completedFuture(tooManyRequests(workload).body(rejected));
+        }
+        return CompletableFuture.supplyAsync(request, cpuExecutor).thenCompose(response -> response);
+    }
 
+    //runs engine under a permit of the workload. A permit that is free goes on on this thread, otherwise the request waits
+    //for one without holding a thread and engine runs on the cpu pool once a finished run hands it over. busy answers
+    //the request when the limit or the pool turn it away
+    private CompletableFuture<ResponseEntity<?>> admitted(String workload, long size,
+                                                          Function<AdmissionBusiness.Permit, ResponseEntity<?>> engine,
+                                                          Function<ResponseEntity.BodyBuilder, ResponseEntity<?>> busy) {
+        CompletableFuture<AdmissionBusiness.Permit> admission = admissionBusiness.acquire(workload, size);
+        if (admission.isDone()) {
+            AdmissionBusiness.Permit permit = admission.join();
+            return CompletableFuture.completedFuture(permit == null ? busy.apply(tooManyRequests(workload)) : run(permit, engine));
+        }
+        return admission.thenCompose(permit -> {
+            if (permit == null) {
+                return CompletableFuture.completedFuture(busy.apply(tooManyRequests(workload)));
+            }
+            try {
+                return CompletableFuture.supplyAsync(() -> run(permit, engine), cpuExecutor);
+            } catch (TaskRejectedException e) {
+                permit.close();
+                return CompletableFuture.completedFuture(busy.apply(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, "5")));
+            }
+        });
+    }
 
-                InputStream inputStream = new ByteArrayInputStream(inputStr.getBytes(StandardCharsets.UTF_8));
-                InputStreamResource resource = new InputStreamResource(inputStream);
-                br.close();
-                deleteTempFile(strPath, strOutPath);
-                return ResponseEntity.ok()
-                        .headers(responseHeaders)
-                        .contentLength(inputStream.available())
-                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                        .body(resource);
+    //the permit is released even when engine fails before it does so itself
+    private static ResponseEntity<?> run(AdmissionBusiness.Permit permit,
+                                         Function<AdmissionBusiness.Permit, ResponseEntity<?>> engine) {
+        try (permit) {
+            return engine.apply(permit);
+        }
+    }
 
-            } else {
-                try (InputStream inputStream = new FileInputStream(fi)) {
-                    deleteTempFile(strPath, strOutPath);
-                    String text = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
 
-                    return ResponseEntity.internalServerError().body(text);
-                } catch (IOException e) {
-                    errorMessage = e.getMessage();
-                    logger.error(errorMessage);
-                    return ResponseEntity.internalServerError().body(errorMessage);
-                }
+    //anonymization metrics for every k in kMin..kMax from a single parse of the file
+    @PostMapping("/mobility/anonymize/sweep")
+    public CompletableFuture<ResponseEntity<?>> anonymizeSweep(@RequestPart MultipartFile file,
+                                                               @RequestParam String kMin,
+                                                               @RequestParam String kMax) {
+        return dispatch(AdmissionBusiness.SWEEP, TOO_MANY_REQUESTS, () -> sweep(file, kMin, kMax));
+    }
 
-            }
-        } catch (IOException | InterruptedException e) {
-            deleteTempFile(strPath);
+    private CompletableFuture<ResponseEntity<?>> sweep(MultipartFile file, String kMin, String kMax) {
+        String errorMessage;
 
-            errorMessage = e.getMessage();
+        ResponseEntity<?> error = validate(file, kMin);
+        if (error != null) {
+            return CompletableFuture.completedFuture(error);
+        }
+        if (checkNumeric(kMax) || Integer.parseInt(kMax) < Integer.parseInt(kMin)) {
+            errorMessage = "kMax must be a number between kMin - 100. You provided " + kMax;
             logger.error(errorMessage);
-            return ResponseEntity.internalServerError().body(errorMessage);
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(errorMessage));
+        }
+        int from = Integer.parseInt(kMin);
+        int to = Integer.parseInt(kMax);
+
+        UUID uuid = UUID.randomUUID();
+        String fileName = "upload-" + uuid + ".csv";
+        String path = "/tmp";
+        String strPath = path + "/" + fileName;
+        Path resultPath = Paths.get(path, "sweep-" + uuid + ".json");
+        String cacheKey;
+        try {
+            UploadSummary upload = FileUploadUtil.saveAndScanFile(fileName, file, Paths.get(path), false);
+            cacheKey = ResultCacheBusiness.key("sweep", upload.getSha256(), "k" + from + "-" + to,
+                    AnonymizationBusiness.NATIVE_ENGINE);
+            if (resultCacheBusiness.get(cacheKey, resultPath)) {
+                logger.info("cache hit " + cacheKey);
+                deleteTempFile(strPath);
+                return CompletableFuture.completedFuture(jsonResponse(resultPath));
+            }
+        } catch (DefaultException | IOException e) {
+            return CompletableFuture.completedFuture(sweepFailed(e, strPath, resultPath));
         }
+
+        //only the engine run holds a permit
+        return admitted(AdmissionBusiness.SWEEP, file.getSize(), permit -> {
+            try {
+                List<Map<String, Object>> data = new ArrayList<>();
+                try (permit) {
+                    anonymizationBusiness.sweep(strPath, from, to).forEach((k, metrics) -> {
+                        Map<String, Object> point = new LinkedHashMap<>();
+                        point.put("k", k);
+                        point.putAll(metrics.toMap());
+                        data.add(point);
+                    });
+                    permit.finished();
+                }
+                deleteTempFile(strPath);
+                Map<String, Object> response = new HashMap<>();
+                response.put("data", data);
+                new ObjectMapper().writeValue(resultPath.toFile(), response);
+                resultCacheBusiness.put(cacheKey, resultPath);
+                return jsonResponse(resultPath);
+            } catch (DefaultException | IOException e) {
+                return sweepFailed(e, strPath, resultPath);
+            }
+        }, status -> {
+            deleteTempFile(strPath);
+            logger.error(TOO_MANY_REQUESTS);
+            return status.body(TOO_MANY_REQUESTS);
+        });
     }
 
+    private ResponseEntity<?> sweepFailed(Exception e, String strPath, Path resultPath) {
+        deleteTempFile(strPath);
+        deleteTempFile(resultPath.toString());
+        String errorMessage = e.getLocalizedMessage();
+        logger.error(errorMessage);
+        if (e instanceof DefaultException) {
+            return ResponseEntity.badRequest().body(errorMessage);
+        }
+        return ResponseEntity.internalServerError().body(errorMessage);
+    }
 
     @GetMapping("/mobility/download")
-    public ResponseEntity<byte[]> download(@RequestParam UUID[] datasetIds) {
+    public WebAsyncTask<ResponseEntity<?>> download(@RequestParam UUID[] datasetIds, HttpServletRequest request) {
+        return new WebAsyncTask<>(null, downloadExecutor, () -> downloadDatasets(datasetIds, request));
+    }
+
+    private ResponseEntity<?> downloadDatasets(UUID[] datasetIds, HttpServletRequest request) {
         String errorMessage;
 
         if (datasetIds.length < 1) {
@@ -222,7 +452,7 @@ public class MobilityController {
                 if (definitionObj.getInternal() == null || !definitionObj.getInternal()) {
                     return handlePublic(datasetObj.getDatasetDefinition().getId(), datasetIds);
                 } else {
-                    return handleInternal(definitionObj, datasetIds);
+                    return handleInternal(definitionObj, datasetIds, request);
                 }
             }
         }
@@ -232,7 +462,11 @@ public class MobilityController {
 
 
     @GetMapping("/premium/download")
-    public ResponseEntity<byte[]> downloadPremium(@RequestParam UUID[] datasetIds) {
+    public WebAsyncTask<ResponseEntity<?>> downloadPremium(@RequestParam UUID[] datasetIds, HttpServletRequest request) {
+        return new WebAsyncTask<>(null, downloadExecutor, () -> downloadPremiumDatasets(datasetIds, request));
+    }
+
+    private ResponseEntity<?> downloadPremiumDatasets(UUID[] datasetIds, HttpServletRequest request) {
         String errorMessage;
         Collection<UUID> paramList;
         DownloadDTO download = orderBusiness.download;
@@ -267,7 +501,7 @@ public class MobilityController {
                 if (definitionObj.getInternal() == null || !definitionObj.getInternal()) {
                     return handlePublic(datasetObj.getDatasetDefinition().getId(), datasetIds);
                 } else {
-                    return handleInternal(definitionObj, datasetIds);
+                    return handleInternal(definitionObj, datasetIds, request);
                 }
             }
         }
@@ -297,128 +531,119 @@ public class MobilityController {
         }
         logger.info("User id" + dto.getUserId());
         DatasetDefinition ds = datasetDefinitionBusiness.save(dto);
-        String path = "/data/mobility/" + ds.getId();
-        File fOrg;
+        return submitAnonymizationJob(ds, dto.getUserId(), file, dto.getK(), dto.getResolution(), true);
+    }
+
+
+    @PostMapping("/mobility/anonymizationJob/{datasetDefinitionId}")
+    public ResponseEntity<?> addDataset(@PathVariable UUID datasetDefinitionId,
+                                        @RequestPart MultipartFile file,
+                                        @RequestPart String k) {
+
+        String errorMessage;
+        ResponseEntity<?> error = validateAddDataset(file, k);
+        if (error != null) {
+            return error;
+        }
+        Optional<DatasetDefinition> ds = datasetDefinitionBusiness.getById(datasetDefinitionId);
+        if (ds.isEmpty()) {
+            errorMessage = "Dataset definition does not exist";
+            logger.error(errorMessage);
+            return ResponseEntity.notFound().build();
+        }
+        Long userId = userRepository.findByUsername(AuthTokenFilter.usernameLoggedIn).map(User::getId).orElse(null);
+        return submitAnonymizationJob(ds.get(), userId, file, Integer.valueOf(k), "daily", false);
+    }
+
+    //multi-day csv or zip of daily csv files, every day becomes its own dataset and anonymization job
+    @PostMapping("/mobility/anonymizationJob/{datasetDefinitionId}/daily")
+    public ResponseEntity<?> addDailyDatasets(@PathVariable UUID datasetDefinitionId,
+                                              @RequestPart MultipartFile file,
+                                              @RequestPart String k) {
+
+        String errorMessage;
+        ResponseEntity<?> error = validateAddDataset(file, k, true);
+        if (error != null) {
+            return error;
+        }
+        Optional<DatasetDefinition> ds = datasetDefinitionBusiness.getById(datasetDefinitionId);
+        if (ds.isEmpty()) {
+            errorMessage = "Dataset definition does not exist";
+            logger.error(errorMessage);
+            return ResponseEntity.notFound().build();
+        }
+
+        String path = "/data/mobility/" + datasetDefinitionId;
         try {
-            fOrg = new File(path);
+            File fOrg = new File(path);
             fOrg.setReadable(true, false);
             fOrg.setWritable(true, false);
             fOrg.mkdirs();
-            Files.setPosixFilePermissions(Path.of("/data/mobility/" + ds.getId()), PosixFilePermissions.fromString("rwxrwxrwx"));
+            Files.setPosixFilePermissions(Path.of(path), PosixFilePermissions.fromString("rwxrwxrwx"));
         } catch (IOException e) {
             errorMessage = e.getMessage();
             logger.error(errorMessage);
             return ResponseEntity.internalServerError().body(errorMessage);
         }
 
-        String strPath = null;
-        try {
-            StringBuffer inputBuffer = new StringBuffer();
-
-            //anonymization process
-            UUID uuid = UUID.randomUUID();
-            String fileName = "upload-" + uuid + ".csv";
-            strPath = path + "/" + fileName;
-
-            FileUploadUtil.saveFile(fileName, file, Paths.get(path));
-
-            String csvDate = getCSVDate(strPath);
-            if (csvDate == null) {
-                errorMessage = "An error occurred while reading file. datetime must be yyyy-MM-dd HH:mm:ss format";
-                logger.error(errorMessage);
-                return ResponseEntity.badRequest().body(errorMessage);
-            }
-
-            fileName = "dataset-" + uuid + "-.csv";
-            String strOutPath = path + "/" + fileName;
-
-            File fi = new File(strOutPath);
-            String pyPath = "/opt/utils/anonymization-v" + ANONYMIZATION_VERSION + ".py";
-            ProcessBuilder processBuilder = new ProcessBuilder("/bin/sh", "-c", "python3 " + pyPath + " --input " + strPath + " --k " + dto.getK() + " | tail -n +2");
-            processBuilder.redirectErrorStream(true);
-            processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(fi));
-            Process process = processBuilder.start();
-
-            int exitVal = process.waitFor();
-            if (exitVal == 0) {
-                String line;
-                long i = 0;
-                BufferedReader br = new BufferedReader(new FileReader(strOutPath));
-
-                while ((line = br.readLine()) != null) {
-                    inputBuffer.append(line);
-                    inputBuffer.append('\n');
-                    i++;
+        SortedMap<LocalDate, Path> uploads;
+        try (DailySplitter splitter = new DailySplitter(Paths.get(path), "upload-" + UUID.randomUUID());
+             InputStream inputStream = file.getInputStream()) {
+            if (Objects.requireNonNull(file.getOriginalFilename()).endsWith(".zip")) {
+                ZipInputStream zis = new ZipInputStream(inputStream);
+                ZipEntry entry;
+                while ((entry = zis.getNextEntry()) != null) {
+                    if (!entry.isDirectory() && entry.getName().endsWith(".csv")) {
+                        splitter.add(new InputStreamReader(CloseShieldInputStream.wrap(zis), StandardCharsets.UTF_8));
+                    }
                 }
-
-                String inputStr = inputBuffer.toString();
-                fileName = "dataset-" + uuid + "-" + csvDate + ".csv";
-                String strPathNew = path + "/" + fileName;
-                Path oldPath = Paths.get(strOutPath);
-                Path newPath = Paths.get(strPathNew);
-                Files.move(oldPath, newPath, StandardCopyOption.REPLACE_EXISTING);
-
-                saveDataset(i, uuid, ds, csvDate, dto);
-
-                HttpHeaders responseHeaders = new HttpHeaders();
-
-                ContentDisposition contentDisposition = ContentDisposition.builder("inline")
-                        .filename(fileName)
-                        .build();
-                responseHeaders.setContentDisposition(contentDisposition);
-
-                InputStream inputStream = new ByteArrayInputStream(inputStr.getBytes(StandardCharsets.UTF_8));
-                InputStreamResource resource = new InputStreamResource(inputStream);
-                br.close();
-                deleteTempFile(strPath);
-
-                publishMDS(ds);
-
-                return ResponseEntity.ok()
-                        .headers(responseHeaders)
-                        .contentLength(inputStream.available())
-                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                        .body(resource);
             } else {
-                try (InputStream inputStream = new FileInputStream(fi)) {
-                    deleteTempFile(strPath);
-                    String text = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
-                    return ResponseEntity.internalServerError().body(text);
-                } catch (IOException e) {
-                    errorMessage = e.getMessage();
-                    logger.error(errorMessage);
-                    return ResponseEntity.internalServerError().body(errorMessage);
-                }
+                splitter.add(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
             }
-
-        } catch (IOException | InterruptedException e) {
-            deleteTempFile(strPath);
-
+            uploads = splitter.finish();
+            if (uploads.isEmpty()) {
+                errorMessage = "File does not contain any rows";
+                logger.error(errorMessage);
+                return ResponseEntity.badRequest().body(errorMessage);
+            }
+        } catch (DefaultException e) {
+            errorMessage = e.getLocalizedMessage();
+            logger.error(errorMessage);
+            return ResponseEntity.badRequest().body(errorMessage);
+        } catch (IOException e) {
             errorMessage = e.getMessage();
             logger.error(errorMessage);
             return ResponseEntity.internalServerError().body(errorMessage);
         }
-    }
-
 
-    @PostMapping("/mobility/anonymizationJob/{datasetDefinitionId}")
-    public ResponseEntity<?> addDataset(@PathVariable UUID datasetDefinitionId,
-                                        @RequestPart MultipartFile file,
-                                        @RequestPart String k) {
+        Long userId = userRepository.findByUsername(AuthTokenFilter.usernameLoggedIn).map(User::getId).orElse(null);
+        try {
+            List<AnonymizationJobDTO> jobs = new ArrayList<>();
+            for (AnonymizationJob job : anonymizationJobBusiness.submitAll(ds.get(), userId, uploads, Integer.valueOf(k), "daily")) {
+                jobs.add(anonymizationJobBusiness.toDTO(job));
+            }
+            Map<String, Object> response = new HashMap<>();
+            response.put("data", jobs);
+            return ResponseEntity.accepted().body(response);
+        } catch (TaskRejectedException e) {
+            errorMessage = "Too many anonymization jobs are queued. Please try again later";
+            logger.error(errorMessage);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(errorMessage);
+        }
+    }
 
+    //saves the upload next to the dataset files and queues it, the job id is returned with 202 Accepted
+    private ResponseEntity<?> submitAnonymizationJob(DatasetDefinition ds, Long userId, MultipartFile file,
+                                                     Integer k, String resolution, boolean publishMDS) {
         String errorMessage;
-        ResponseEntity<?> error = validateAddDataset(file, k);
-        if (error != null) {
-            return error;
-        }
+        String path = "/data/mobility/" + ds.getId();
         File fOrg;
-        String path = "/data/mobility/" + datasetDefinitionId;
         try {
             fOrg = new File(path);
             fOrg.setReadable(true, false);
             fOrg.setWritable(true, false);
             fOrg.mkdirs();
-            Files.setPosixFilePermissions(Path.of("/data/mobility/" + datasetDefinitionId), PosixFilePermissions.fromString("rwxrwxrwx"));
+            Files.setPosixFilePermissions(Path.of("/data/mobility/" + ds.getId()), PosixFilePermissions.fromString("rwxrwxrwx"));
         } catch (IOException e) {
             errorMessage = e.getMessage();
             logger.error(errorMessage);
@@ -427,125 +652,102 @@ public class MobilityController {
 
         String strPath = null;
         try {
-            StringBuffer inputBuffer = new StringBuffer();
-
-            //anonymization process
-            UUID uuid = UUID.randomUUID();
-            String fileName = "upload-" + uuid + ".csv";
+            String fileName = "upload-" + UUID.randomUUID() + ".csv";
             strPath = path + "/" + fileName;
 
-            FileUploadUtil.saveFile(fileName, file, Paths.get(path));
-            String csvDate = getCSVDate(strPath);
-            if (csvDate == null) {
-                errorMessage = "An error occurred while reading file. datetime must be yyyy-MM-dd HH:mm:ss format";
+            UploadSummary upload;
+            try {
+                upload = FileUploadUtil.saveAndScanFile(fileName, file, Paths.get(path), true);
+            } catch (DefaultException e) {
+                deleteTempFile(strPath);
+                errorMessage = "An error occurred while reading file. " + e.getLocalizedMessage();
                 logger.error(errorMessage);
                 return ResponseEntity.badRequest().body(errorMessage);
             }
+            String csvDate = upload.getFirstDate().toString();
 
-            fileName = "dataset-" + uuid + "-.csv";
-            String strOutPath = path + "/" + fileName;
-
-            File fi = new File(strOutPath);
-            String pyPath = "/opt/utils/anonymization-v" + ANONYMIZATION_VERSION + ".py";
-
-            ProcessBuilder processBuilder = new ProcessBuilder("/bin/sh", "-c", "python3 " + pyPath + " --input " + strPath + " --k " + k + " | tail -n +2");
-            processBuilder.redirectErrorStream(true);
-            processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(fi));
-            Process process = processBuilder.start();
-
-            int exitVal = process.waitFor();
-            if (exitVal == 0) {
-                String line;
-                long i = 0;
-                BufferedReader br = new BufferedReader(new FileReader(strOutPath));
-
-                while ((line = br.readLine()) != null) {
-                    inputBuffer.append(line);
-                    inputBuffer.append('\n');
-                    i++;
-                }
-
-                if (csvDate != null) {
-                    String inputStr = inputBuffer.toString();
-                    fileName = "dataset-" + uuid + "-" + csvDate + ".csv";
-                    String strPathNew = path + "/" + fileName;
-                    Path oldPath = Paths.get(strOutPath);
-                    Path newPath = Paths.get(strPathNew);
-                    Files.move(oldPath, newPath, StandardCopyOption.REPLACE_EXISTING);
-
-                    long dataPoints = i - 1;
-                    logger.info("dataPoints:" + dataPoints);
-                    Dataset d = new Dataset();
-                    Optional<DatasetDefinition> ds = datasetDefinitionBusiness.getById(datasetDefinitionId);
-                    if (ds.isPresent()) {
-                        d.setId(uuid);
-                        d.setDatasetDefinition(ds.get());
-                        d.setStartDate(Date.valueOf(csvDate));
-                        d.setEndDate(Date.valueOf(csvDate));
-                        d.setResolution("daily");
-                        d.setK(Integer.valueOf(k));
-                        d.setDataPoints(dataPoints);
-
-                        datasetBusiness.save(d);
-
-                        HttpHeaders responseHeaders = new HttpHeaders();
-
-                        ContentDisposition contentDisposition = ContentDisposition.builder("inline")
-                                .filename(fileName)
-                                .build();
-                        responseHeaders.setContentDisposition(contentDisposition);
-
-                        InputStream inputStream = new ByteArrayInputStream(inputStr.getBytes(StandardCharsets.UTF_8));
-                        InputStreamResource resource = new InputStreamResource(inputStream);
-                        br.close();
-                        deleteTempFile(strPath);
-                        return ResponseEntity.ok()
-                                .headers(responseHeaders)
-                                .contentLength(inputStream.available())
-                                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                                .body(resource);
-                    } else {
-                        errorMessage = "Dataset definition does not exist";
-                        logger.error(errorMessage);
-                        return ResponseEntity.notFound().build();
-                    }
-                }
-            } else {
-                InputStream inputStream = new FileInputStream(fi);
-                InputStreamResource resource = new InputStreamResource(inputStream);
-                HttpHeaders responseHeaders = new HttpHeaders();
-
-                ContentDisposition contentDisposition = ContentDisposition.builder("inline")
-                        .filename("error.txt")
-                        .build();
-
-                responseHeaders.setContentDisposition(contentDisposition);
+            AnonymizationJob job = anonymizationJobBusiness.submit(ds, userId, strPath, upload.getSha256(), csvDate, k, resolution, publishMDS);
 
-                deleteTempFile(strPath);
-                return ResponseEntity.internalServerError()
-                        .headers(responseHeaders)
-                        .contentLength(inputStream.available())
-                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                        .body(resource);
-
-            }
-
-        } catch (IOException | InterruptedException e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("data", anonymizationJobBusiness.toDTO(job));
+            return ResponseEntity.accepted()
+                    .location(UriComponentsBuilder.fromPath("/mobility/jobs/{id}").buildAndExpand(job.getId()).toUri())
+                    .body(response);
+        } catch (TaskRejectedException e) {
+            errorMessage = "Too many anonymization jobs are queued. Please try again later";
+            logger.error(errorMessage);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(errorMessage);
+        } catch (IOException e) {
             deleteTempFile(strPath);
             errorMessage = e.getMessage();
             logger.error(errorMessage);
             return ResponseEntity.internalServerError().body(errorMessage);
         }
+    }
 
-        deleteTempFile(strPath);
+    @GetMapping("/mobility/jobs/{id}")
+    public ResponseEntity<Map<String, Object>> getJob(@PathVariable UUID id) {
+        Map<String, Object> response = new HashMap<>();
+        Optional<AnonymizationJob> job = getOwnJob(id);
+        if (job.isEmpty()) {
+            String errorMessage = "Job does not exist";
+            logger.error(errorMessage);
+            response.put("error", errorMessage);
+            return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
+        }
+        response.put("data", anonymizationJobBusiness.toDTO(job.get()));
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
 
-        errorMessage = "An error occurred while processing your request";
-        logger.error(errorMessage);
-        return ResponseEntity.internalServerError().body(errorMessage);
+    @GetMapping("/mobility/jobs/{id}/result")
+    public ResponseEntity<?> getJobResult(@PathVariable UUID id, HttpServletRequest request) {
+        String errorMessage;
+        Optional<AnonymizationJob> job = getOwnJob(id);
+        if (job.isEmpty()) {
+            errorMessage = "Job does not exist";
+            logger.error(errorMessage);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorMessage);
+        }
+        if (job.get().getStatus() != JobStatus.COMPLETED) {
+            errorMessage = "Job is " + job.get().getStatus().name().toLowerCase();
+            logger.error(errorMessage);
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(errorMessage);
+        }
+        File f = anonymizationJobBusiness.getResultPath(job.get()).toFile();
+        if (!f.exists() && !CompressedCsv.pathOf(f.toPath()).toFile().exists()) {
+            errorMessage = "Dataset file does not exist";
+            logger.error(errorMessage);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorMessage);
+        }
+
+        HttpHeaders responseHeaders = new HttpHeaders();
+        ContentDisposition contentDisposition = ContentDisposition.builder("inline")
+                .filename(f.getName())
+                .build();
+        responseHeaders.setContentDisposition(contentDisposition);
+        try {
+            return FileDownloadUtil.download(request, responseHeaders, f.toPath());
+        } catch (IOException e) {
+            errorMessage = e.getMessage();
+            logger.error(errorMessage);
+            return ResponseEntity.internalServerError().body(errorMessage);
+        }
+    }
 
+    private Optional<AnonymizationJob> getOwnJob(UUID id) {
+        if (AuthTokenFilter.usernameLoggedIn == null) {
+            return Optional.empty();
+        }
+        Optional<User> user = userRepository.findByUsername(AuthTokenFilter.usernameLoggedIn);
+        return anonymizationJobBusiness.getById(id)
+                .filter(j -> user.isPresent() && user.get().getId().equals(j.getUserId()));
     }
 
     private ResponseEntity<?> validateAddDataset(MultipartFile file, String k) {
+        return validateAddDataset(file, k, false);
+    }
+
+    private ResponseEntity<?> validateAddDataset(MultipartFile file, String k, boolean allowZip) {
 
         String errorMessage;
 
@@ -554,8 +756,9 @@ public class MobilityController {
             logger.error(errorMessage);
             return ResponseEntity.badRequest().body(errorMessage);
         }
-        if (!Objects.requireNonNull(file.getOriginalFilename()).endsWith(".csv")) {
-            errorMessage = "Please upload a csv file. You provided " + file.getOriginalFilename();
+        String originalFilename = Objects.requireNonNull(file.getOriginalFilename());
+        if (!originalFilename.endsWith(".csv") && !(allowZip && originalFilename.endsWith(".zip"))) {
+            errorMessage = (allowZip ? "Please upload a csv or zip file. You provided " : "Please upload a csv file. You provided ") + originalFilename;
             logger.error(errorMessage);
             return ResponseEntity.badRequest().body(errorMessage);
         }
@@ -581,32 +784,265 @@ public class MobilityController {
     }
 
     @GetMapping("/mobility/visitorDetection")
-    public ResponseEntity<Map<String, Object>> findMeHere(@RequestParam Integer[] locationIds,
-                                                          @RequestParam UUID datasetId) {
+    public WebAsyncTask<ResponseEntity<Map<String, Object>>> findMeHere(@RequestParam Integer[] locationIds,
+                                                                        @RequestParam UUID datasetId) {
         Map<String, Object> response = new HashMap<>();
         String errorMessage;
         ResponseEntity<Map<String, Object>> error = validateFindMeHere(locationIds);
         if (error != null) {
-            return error;
+            return new WebAsyncTask<>(() -> error);
+        }
+
+        //internal datasets are searched by the Internal server, so they wait on the outbound pool instead of a cpu thread
+        Dataset dataset = getDataset(datasetId);
+        if (dataset == null) {
+            errorMessage = "Dataset not found";
+            logger.error(errorMessage);
+            response.put("error", errorMessage);
+            return new WebAsyncTask<>(() -> new ResponseEntity<>(response, HttpStatus.NOT_FOUND));
+        }
+        Optional<DatasetDefinition> dd = datasetDefinitionBusiness.getById(dataset.getDatasetDefinition().getId());
+        if (dd.isPresent()) {
+            DatasetDefinition datasetDef = dd.get();
+            if (datasetDef.getInternal() == null || !datasetDef.getInternal()) {
+                return new WebAsyncTask<>(null, detectionExecutor, () -> findMeHere(datasetDef, dataset, locationIds));
+            } else {
+                return new WebAsyncTask<>(null, outboundExecutor, () -> findMeHereInternal(datasetDef, locationIds, datasetId));
+            }
+        }
+
+        errorMessage = "An error occurred while processing your request";
+        logger.error(errorMessage);
+        response.put("error", errorMessage);
+        return new WebAsyncTask<>(() -> new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR));
+    }
+
+
+    //one count per day between from and to, the days are searched in parallel
+    @GetMapping("/mobility/visitorDetection/range")
+    public WebAsyncTask<ResponseEntity<Map<String, Object>>> findMeHereRange(@RequestParam UUID datasetDefinitionId,
+                                                                             @RequestParam String from,
+                                                                             @RequestParam String to,
+                                                                             @RequestParam Integer[] locationIds) {
+        Map<String, Object> response = new HashMap<>();
+        String errorMessage;
+        ResponseEntity<Map<String, Object>> error = validateFindMeHere(locationIds);
+        if (error != null) {
+            return new WebAsyncTask<>(() -> error);
+        }
+        LocalDate start;
+        LocalDate end;
+        try {
+            start = LocalDate.parse(from);
+            end = LocalDate.parse(to);
+        } catch (DateTimeParseException e) {
+            errorMessage = "from and to must be dates in the format yyyy-MM-dd";
+            logger.error(errorMessage);
+            response.put("error", errorMessage);
+            return new WebAsyncTask<>(() -> new ResponseEntity<>(response, HttpStatus.BAD_REQUEST));
+        }
+        if (end.isBefore(start) || ChronoUnit.DAYS.between(start, end) >= MAX_DETECTION_DAYS) {
+            errorMessage = "to must not be before from and the range can span at most " + MAX_DETECTION_DAYS + " days";
+            logger.error(errorMessage);
+            response.put("error", errorMessage);
+            return new WebAsyncTask<>(() -> new ResponseEntity<>(response, HttpStatus.BAD_REQUEST));
+        }
+
+        Optional<DatasetDefinition> dd = datasetDefinitionBusiness.getById(datasetDefinitionId);
+        if (dd.isEmpty()) {
+            errorMessage = "Dataset definition not found";
+            logger.error(errorMessage);
+            response.put("error", errorMessage);
+            return new WebAsyncTask<>(() -> new ResponseEntity<>(response, HttpStatus.NOT_FOUND));
+        }
+        DatasetDefinition datasetDef = dd.get();
+        boolean internal = datasetDef.getInternal() != null && datasetDef.getInternal();
+        //the days of internal definitions are sent from the outbound pool, so the request itself must not hold one of its threads
+        return new WebAsyncTask<>(null, detectionExecutor, () -> findMeHereRange(datasetDef, start, end, locationIds, internal));
+    }
+
+    private ResponseEntity<Map<String, Object>> findMeHereRange(DatasetDefinition datasetDef, LocalDate from, LocalDate to,
+                                                                Integer[] locationIds, boolean internal) {
+        Map<String, Object> response = new HashMap<>();
+        //the day of a dataset is its start date, unique per dataset definition
+        List<Dataset> datasets = from.datesUntil(to.plusDays(1))
+                .map(day -> datasetBusiness.getByDatasetDefinitionIdAndStartDate(datasetDef.getId(), Date.valueOf(day)))
+                .filter(Objects::nonNull).toList();
+        int[] arr = Arrays.stream(locationIds).mapToInt(Integer::intValue).toArray();
+        Integer[] counts = new Integer[datasets.size()];
+        try {
+            if (internal) {
+                //blocking calls to the internal server, one per day on the outbound pool
+                List<CompletableFuture<Integer>> futures = new ArrayList<>();
+                for (Dataset dataset : datasets) {
+                    futures.add(CompletableFuture.supplyAsync(() ->
+                            countInternalCached(datasetDef, dataset.getId(), arr, locationIds), outboundExecutor));
+                }
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = futures.get(i).get();
+                }
+            } else {
+                detectionForkJoinPool.submit(() -> IntStream.range(0, datasets.size()).parallel()
+                        .forEach(i -> counts[i] = countLocal(datasetDef, datasets.get(i).getId(), arr))).get();
+            }
+        } catch (TaskRejectedException e) {
+            logger.error(e.getMessage());
+            response.put("error", "All outbound workers are busy. Please try again later");
+            return new ResponseEntity<>(response, HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (InterruptedException | ExecutionException e) {
+            logger.error(e.getMessage());
+            response.put("error", "An error occurred while processing your request");
+            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        //the day with the fewest matching visitors decides how identifiable the route is
+        List<Map<String, Object>> days = new ArrayList<>();
+        int minCount = 0;
+        for (int i = 0; i < datasets.size(); i++) {
+            Map<String, Object> day = new HashMap<>();
+            day.put("date", datasets.get(i).getStartDate().toString());
+            day.put("datasetId", datasets.get(i).getId());
+            if (counts[i] == null) {
+                day.put("error", "An error occurred while processing your request");
+            } else {
+                day.put("count", counts[i]);
+                day.put("riskLevel", getRiskLevel(counts[i]));
+                if (counts[i] > 0 && (minCount == 0 || counts[i] < minCount)) {
+                    minCount = counts[i];
+                }
+            }
+            days.add(day);
+        }
+        response.put("days", days);
+        response.put("minCount", minCount);
+        response.put("riskLevel", getRiskLevel(minCount));
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    private Integer countLocal(DatasetDefinition datasetDef, UUID datasetId, int[] locationIds) {
+        try {
+            return traceIndexBusiness.count(datasetDef.getId(), datasetId, locationIds);
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+            return null;
+        }
+    }
+
+    private Integer countInternalCached(DatasetDefinition datasetDef, UUID datasetId, int[] arr, Integer[] locationIds) {
+        try {
+            return traceIndexBusiness.count(datasetId, arr, () -> countInternal(datasetDef, datasetId, locationIds));
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+            return null;
+        }
+    }
+
+    private Integer countInternal(DatasetDefinition datasetDef, UUID datasetId, Integer[] locationIds) {
+        String domain = datasetDef.getServer().getDomain();
+        if (domain == null) {
+            return null;
+        }
+        String url = UriComponentsBuilder
+                .fromUriString(domain + "/internal/mobility/visitorDetection")
+                .queryParam("datasetDefinitionId", datasetDef.getId())
+                .queryParam("datasetId", datasetId)
+                .queryParam("locationIds", Arrays.toString(locationIds).replaceAll(" ", ""))
+                .build().toUriString();
+        try {
+            return restTemplate.getForObject(url, Integer.class);
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            return null;
+        }
+    }
+
+    //every sequence of the batch is matched against each dataset in one pass over its traces
+    @PostMapping("/mobility/visitorDetection/batch")
+    public WebAsyncTask<ResponseEntity<Map<String, Object>>> findMeHereBatch(@RequestBody VisitorDetectionBatchDTO batch) {
+        Map<String, Object> response = new HashMap<>();
+        String errorMessage;
+        if (batch.getDatasetIds() == null || batch.getDatasetIds().isEmpty()) {
+            errorMessage = "Please provide at least one dataset - datasetIds";
+        } else if (batch.getLocationIds() == null || batch.getLocationIds().isEmpty()) {
+            errorMessage = "Please provide at least one location sequence - locationIds";
+        } else if (batch.getLocationIds().size() > MAX_BATCH_SEQUENCES) {
+            errorMessage = "Too many location sequences. The maximum is " + MAX_BATCH_SEQUENCES;
+        } else {
+            for (Integer[] locationIds : batch.getLocationIds()) {
+                ResponseEntity<Map<String, Object>> error = validateFindMeHere(locationIds);
+                if (error != null) {
+                    return new WebAsyncTask<>(() -> error);
+                }
+            }
+            return new WebAsyncTask<>(null, detectionExecutor, () -> {
+                int[][] patterns = batch.getLocationIds().stream()
+                        .map(l -> Arrays.stream(l).mapToInt(Integer::intValue).toArray()).toArray(int[][]::new);
+                List<Map<String, Object>> results = new ArrayList<>();
+                for (UUID datasetId : batch.getDatasetIds()) {
+                    results.add(findMeHereBatch(datasetId, batch.getLocationIds(), patterns));
+                }
+                response.put("results", results);
+                return new ResponseEntity<>(response, HttpStatus.OK);
+            });
         }
+        logger.error(errorMessage);
+        response.put("error", errorMessage);
+        return new WebAsyncTask<>(() -> new ResponseEntity<>(response, HttpStatus.BAD_REQUEST));
+    }
 
+    private Map<String, Object> findMeHereBatch(UUID datasetId, List<Integer[]> locationIds, int[][] patterns) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("datasetId", datasetId);
         Dataset dataset = getDataset(datasetId);
-        Optional<DatasetDefinition> dd = datasetDefinitionBusiness.getById(dataset.getDatasetDefinition().getId());
-        if (dd.isPresent()) {
-            DatasetDefinition datasetDef = dd.get();
+        Optional<DatasetDefinition> dd = dataset == null ? Optional.empty() :
+                datasetDefinitionBusiness.getById(dataset.getDatasetDefinition().getId());
+        if (dd.isEmpty()) {
+            result.put("error", "Dataset not found");
+            return result;
+        }
+        DatasetDefinition datasetDef = dd.get();
+        int[] counts = null;
+        try {
             if (datasetDef.getInternal() == null || !datasetDef.getInternal()) {
-                return findMeHere(datasetDef, dataset, locationIds);
+                TraceIndex index = traceIndexBusiness.get(datasetDef.getId(), datasetId);
+                if (index != null) {
+                    counts = index.countAll(patterns);
+                }
             } else {
-                return findMeHereInternal(datasetDef, locationIds, datasetId);
+                counts = findMeHereBatchInternal(datasetDef, datasetId, patterns);
             }
+        } catch (Exception e) {
+            logger.error(e.getMessage());
         }
-
-        errorMessage = "An error occurred while processing your request";
-        logger.error(errorMessage);
-        response.put("error", errorMessage);
-        return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        if (counts == null || counts.length != patterns.length) {
+            result.put("error", "An error occurred while processing your request");
+            return result;
+        }
+        List<Map<String, Object>> sequences = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            Map<String, Object> sequence = new HashMap<>();
+            sequence.put("locationIds", locationIds.get(i));
+            sequence.put("count", counts[i]);
+            sequence.put("riskLevel", getRiskLevel(counts[i]));
+            sequences.add(sequence);
+        }
+        result.put("sequences", sequences);
+        return result;
     }
 
+    private int[] findMeHereBatchInternal(DatasetDefinition datasetDef, UUID datasetId, int[][] patterns) {
+        String domain = datasetDef.getServer().getDomain();
+        if (domain == null) {
+            return null;
+        }
+        String url = UriComponentsBuilder
+                .fromUriString(domain + "/internal/mobility/visitorDetection/batch")
+                .queryParam("datasetDefinitionId", datasetDef.getId())
+                .queryParam("datasetId", datasetId)
+                .build().toUriString();
+        logger.info(url);
+        return restTemplate.postForObject(url, patterns, int[].class);
+    }
 
     private ResponseEntity<Map<String, Object>> findMeHereInternal(DatasetDefinition datasetDef, Integer[] locationIds, UUID datasetId) {
 
@@ -615,199 +1051,46 @@ public class MobilityController {
 
         logger.info("retrieving result from internal server");
         //get response from internal server
-        RestTemplateClient restTemplate = new RestTemplateClient();
-        String domain = datasetDef.getServer().getDomain();
-
-        if (domain != null) {
-            String uri = domain + "/internal/mobility/visitorDetection";
-
-            String url = UriComponentsBuilder
-                    .fromUriString(uri)
-                    .queryParam("datasetDefinitionId", datasetDef.getId())
-                    .queryParam("datasetId", datasetId)
-                    .queryParam("locationIds", Arrays.toString(locationIds).replaceAll(" ", ""))
-                    .build().toUriString();
-            logger.info(url);
-            try {
-                JsonNode node = restTemplate.restTemplate().exchange(url,
-                        HttpMethod.GET, null, JsonNode.class).getBody();
-                if (node != null) {
-                    JsonFactory jsonFactory = new JsonFactory();
-                    ObjectMapper objectMapper = new ObjectMapper(jsonFactory);
-                    JsonNode jsonNode = objectMapper.readValue(node.toString(), JsonNode.class);
-                    if (jsonNode == null) {
-                        errorMessage = "An error occurred while processing your request";
-                        logger.error(errorMessage);
-                        response.put("error", errorMessage);
-                        return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
-                    } else {
-                        response.put("count", jsonNode.asInt());
-                        response.put("riskLevel", getRiskLevel(jsonNode.asInt()));
-                        return new ResponseEntity<>(response, HttpStatus.OK);
-                    }
-                }
-            } catch (Exception ex) {
-                errorMessage = ex.getMessage();
-                logger.error(errorMessage);
-                response.put("error", errorMessage);
-                return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        try {
+            int[] arr = Arrays.stream(locationIds).mapToInt(Integer::intValue).toArray();
+            Integer i = traceIndexBusiness.count(datasetId, arr, () -> countInternal(datasetDef, datasetId, locationIds));
+            if (i != null) {
+                response.put("count", i);
+                response.put("riskLevel", getRiskLevel(i));
+                return new ResponseEntity<>(response, HttpStatus.OK);
             }
+        } catch (IOException e) {
+            errorMessage = e.getMessage();
+            logger.error(errorMessage);
+            response.put("error", errorMessage);
+            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
         }
         response.put("error", "An error occured while processing your request");
         return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
     private ResponseEntity<Map<String, Object>> findMeHere(DatasetDefinition datasetDef, Dataset dataset, Integer[] locationIds) {
-        File file = new File("/data/mobility/" + datasetDef.getId());
-        File[] files = file.listFiles((d, name) -> name.contains(dataset.getId().toString())); //only get 1 record
-        RFC4180Parser rfc4180Parser = new RFC4180ParserBuilder().build();
-
         Map<String, Object> response = new HashMap<>();
         String errorMessage;
-
-        List<Integer> locIdList = Arrays.stream(locationIds).toList();
-
-        if (files != null && files.length > 0) {
-            if (files[0].getName().contains(dataset.getId().toString())) {
-                List<VisitorTracks> visitorTracks = new ArrayList<>();
-                List<VisitorTracksNew> visitorTracksNew = new ArrayList<>();
-                Boolean newFormat;
-                try (CSVReader csvReader = new CSVReaderBuilder(new FileReader(files[0])).withSkipLines(1).withCSVParser(rfc4180Parser).build()) {
-                    newFormat = getVisitorTracks(visitorTracks, visitorTracksNew, csvReader);
-                    if (newFormat == null){
-                        response.put("error", "An error occurred while processing your request");
-                        return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
-                    }
-                } catch (IOException e) {
-                    errorMessage = e.getMessage();
-                    logger.error(errorMessage);
-                    response.put("error", errorMessage);
-                    return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
-                }
-
-
-
-                Map<String, List<Integer>> vIdMap;
-                if (newFormat) {
-                    visitorTracksNew.sort(Comparator.comparing(VisitorTracksNew::getAnonymizedUniqueId)
-                            .thenComparing(VisitorTracksNew::getStartTime));
-                    vIdMap = visitorTracksNew.stream().collect(Collectors.groupingBy(
-                            VisitorTracksNew::getAnonymizedUniqueId,
-                            Collectors.mapping(VisitorTracksNew::getLocationId, Collectors.toList())));
-                } else {
-                    visitorTracks.sort(Comparator.comparing(VisitorTracks::getVisitorId)
-                            .thenComparing(VisitorTracks::getFirstTimeSeen));
-                    vIdMap = visitorTracks.stream().filter(p -> p.getRegionId() > 0)
-                            .collect(Collectors.groupingBy(
-                                    VisitorTracks::getVisitorId,
-                                    Collectors.mapping(VisitorTracks::getRegionId, Collectors.toList())));
-                }
-                Map<String, List<Integer>> vIdMapFiltered = new HashMap<>();
-                getMap(vIdMapFiltered, vIdMap);
-                int i = 0;
-
-                for (Map.Entry<String, List<Integer>> entry : vIdMapFiltered.entrySet()) {
-                    if (Collections.indexOfSubList(entry.getValue(), locIdList) > -1) {
-                        i++;
-                    }
-                }
-
+        try {
+            Integer i = traceIndexBusiness.count(datasetDef.getId(), dataset.getId(),
+                    Arrays.stream(locationIds).mapToInt(Integer::intValue).toArray());
+            if (i != null) {
                 response.put("count", i);
                 response.put("riskLevel", getRiskLevel(i));
                 return new ResponseEntity<>(response, HttpStatus.OK);
             }
-
+        } catch (IOException e) {
+            errorMessage = e.getMessage();
+            logger.error(errorMessage);
+            response.put("error", errorMessage);
+            return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
         }
         response.put("error", "An error occured while processing your request");
         return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
 
     }
 
-    private void getMap(Map<String, List<Integer>> vIdMapFiltered, Map<String, List<Integer>> vIdMap){
-        Iterator<Map.Entry<String, List<Integer>>> iterator = vIdMap.entrySet().iterator();
-        Map.Entry<String, List<Integer>> prev = null;
-
-        while (iterator.hasNext()) {
-            Map.Entry<String, List<Integer>> next = iterator.next();
-
-            if (prev != null) {
-                if (prev.getValue().size() > 1) {
-                    List<Integer> newList = new ArrayList<>();
-                    for (int i = 0; i < prev.getValue().size(); i++) {
-                        if ((i + 1) < prev.getValue().size()) {
-                            if (!Objects.equals(prev.getValue().get(i), prev.getValue().get(i + 1))) {
-                                newList.add(prev.getValue().get(i));
-                            }
-                        } else {
-                            newList.add(prev.getValue().get(i));
-                        }
-                    }
-
-                    vIdMapFiltered.put(prev.getKey(), newList);
-                } else {
-                    vIdMapFiltered.put(prev.getKey(), prev.getValue());
-                }
-            }
-
-            prev = next;
-
-        }
-
-        //last entry
-        if (prev != null) {
-            if (prev.getValue().size() > 1) {
-                List<Integer> newList = new ArrayList<>();
-                for (int i = 0; i < prev.getValue().size(); i++) {
-                    if ((i + 1) < prev.getValue().size()) {
-                        if (!Objects.equals(prev.getValue().get(i), prev.getValue().get(i + 1))) {
-                            newList.add(prev.getValue().get(i));
-                        }
-                    } else {
-                        newList.add(prev.getValue().get(i));
-                    }
-
-                }
-
-                vIdMapFiltered.put(prev.getKey(), newList);
-            } else {
-                vIdMapFiltered.put(prev.getKey(), prev.getValue());
-            }
-        }
-
-
-    }
-
-    private Boolean getVisitorTracks(List<VisitorTracks> visitorTracks, List<VisitorTracksNew> visitorTracksNew, CSVReader csvReader){
-        boolean newFormat = false;
-        try {
-            String[] nextRecord;
-            int i = 0;
-            while ((nextRecord = csvReader.readNext()) != null) {
-                if (i == 0) {
-                    newFormat = Arrays.stream(nextRecord).count() == Arrays.stream(NEW_CSV_FORMAT).count();
-                    logger.info("new format " + newFormat);
-                }
-
-                if (newFormat) {
-                    VisitorTracksNew visitorTrackNew = createVisitorTrackNew(nextRecord);
-                    if (visitorTrackNew != null) {
-                        visitorTracksNew.add(visitorTrackNew);
-                    }
-                } else {
-                    VisitorTracks visitorTrack = createVisitorTrack(nextRecord);
-                    if (visitorTrack != null) {
-                        visitorTracks.add(visitorTrack);
-                    }
-                }
-                i++;
-            }
-            return newFormat;
-        } catch (IOException | CsvValidationException e) {
-            return null;
-        }
-
-    }
-
     private Dataset getDataset(UUID id) {
         Optional<Dataset> datasetIdCheck = datasetBusiness.getById(id);
         return datasetIdCheck.orElse(null);
@@ -833,118 +1116,213 @@ public class MobilityController {
     }
 
     @PostMapping("/mobility/audit")
-    public Callable<ResponseEntity<Map<String, Object>>> audit(@RequestPart MultipartFile file,
-                                                               @RequestPart String k) {
-        return () -> {
-            String errorMessage;
-            Map<String, Object> response = new HashMap<>();
-            if (file.isEmpty()) {
-                errorMessage = "File is required";
-                logger.error(errorMessage);
-                response.put("error", errorMessage);
-                return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-            }
-            if (!Objects.requireNonNull(file.getOriginalFilename()).endsWith(".csv")) {
-                errorMessage = "Please upload a csv file. You provided " + file.getOriginalFilename();
-                logger.error(errorMessage);
-                response.put("error", errorMessage);
-                return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-            }
+    public CompletableFuture<ResponseEntity<?>> audit(@RequestPart MultipartFile file,
+                                                      @RequestPart String k,
+                                                      @RequestPart(required = false) String limit,
+                                                      HttpServletRequest request) {
+        ProcessRunner.Handle handle = cancelOnDisconnect(request);
+        return dispatch(AdmissionBusiness.AUDIT, Map.of("error", TOO_MANY_REQUESTS), () -> auditFile(file, k, limit, handle));
+    }
 
-            if (file.getSize() > MAX_FILE_SIZE) {
-                errorMessage = "Exceeded max file size " + MAX_FILE_SIZE;
-                logger.error(errorMessage);
-                return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-            }
+    private CompletableFuture<ResponseEntity<?>> auditFile(MultipartFile file, String k, String limit, ProcessRunner.Handle handle) {
+        String errorMessage;
+        Map<String, Object> response = new HashMap<>();
+        if (file.isEmpty()) {
+            errorMessage = "File is required";
+            logger.error(errorMessage);
+            response.put("error", errorMessage);
+            return CompletableFuture.completedFuture(new ResponseEntity<>(response, HttpStatus.BAD_REQUEST));
+        }
+        if (!Objects.requireNonNull(file.getOriginalFilename()).endsWith(".csv")) {
+            errorMessage = "Please upload a csv file. You provided " + file.getOriginalFilename();
+            logger.error(errorMessage);
+            response.put("error", errorMessage);
+            return CompletableFuture.completedFuture(new ResponseEntity<>(response, HttpStatus.BAD_REQUEST));
+        }
 
-            if (!isNumeric(k) || Integer.parseInt(k) < 2) {
-                errorMessage = "k must be a number between 2 - dataset size. You provided " + k;
-                logger.error(errorMessage);
-                response.put("error", errorMessage);
-                return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-            }
+        if (file.getSize() > MAX_FILE_SIZE) {
+            errorMessage = "Exceeded max file size " + MAX_FILE_SIZE;
+            logger.error(errorMessage);
+            return CompletableFuture.completedFuture(new ResponseEntity<>(response, HttpStatus.BAD_REQUEST));
+        }
 
-            UUID uuid = UUID.randomUUID();
-            String fileName = "upload-" + uuid + ".csv";
-            String path = "/tmp";
-            String strPath = path + "/" + fileName;
+        if (!isNumeric(k) || Integer.parseInt(k) < 2) {
+            errorMessage = "k must be a number between 2 - dataset size. You provided " + k;
+            logger.error(errorMessage);
+            response.put("error", errorMessage);
+            return CompletableFuture.completedFuture(new ResponseEntity<>(response, HttpStatus.BAD_REQUEST));
+        }
 
+        if (limit != null && (!isNumeric(limit) || Integer.parseInt(limit) < 1)) {
+            errorMessage = "limit must be a positive number. You provided " + limit;
+            logger.error(errorMessage);
+            response.put("error", errorMessage);
+            return CompletableFuture.completedFuture(new ResponseEntity<>(response, HttpStatus.BAD_REQUEST));
+        }
+        Integer limitValue = limit == null ? null : Integer.valueOf(limit);
+
+        UUID uuid = UUID.randomUUID();
+        String fileName = "upload-" + uuid + ".csv";
+        String path = "/tmp";
+        String strPath = path + "/" + fileName;
+        Path resultPath = Paths.get(path, "audit-" + uuid + ".json");
+        String cacheKey;
+        try {
+            //the native engine validates the rows itself, the script only gets checked rows
+            UploadSummary upload = FileUploadUtil.saveAndScanFile(fileName, file, Paths.get(path), !anonymizationBusiness.isNativeAudit());
+            cacheKey = ResultCacheBusiness.key("audit", upload.getSha256(), "k" + Integer.parseInt(k.trim()),
+                    "limit" + (limitValue == null ? "all" : limitValue), anonymizationBusiness.getAuditVersion());
+            if (resultCacheBusiness.get(cacheKey, resultPath)) {
+                logger.info("cache hit " + cacheKey);
+                deleteTempFile(strPath);
+                return CompletableFuture.completedFuture(jsonResponse(resultPath));
+            }
+        } catch (DefaultException e) {
+            deleteTempFile(strPath);
+            return CompletableFuture.completedFuture(auditFailed(response, HttpStatus.BAD_REQUEST, e.getLocalizedMessage()));
+        } catch (IOException e) {
+            deleteTempFile(strPath);
+            return CompletableFuture.completedFuture(auditFailed(response, HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage()));
+        }
 
+        //only the engine or script run holds a permit
+        return admitted(AdmissionBusiness.AUDIT, file.getSize(), permit -> {
             try {
-                FileUploadUtil.saveFile(fileName, file, Paths.get(path));
-                Scanner input = new Scanner(new File(strPath));
-                int counter = 0;
-                String csvDate;
-                int dateIndex = -1;
-                while (input.hasNextLine() && counter < 2) {
-                    String[] nextRecord = input.nextLine().split(",");
-
-                    if (counter > 0) {
-                        if (dateIndex < 0) {
-                            errorMessage = "datetime not found. Please include the file header.";
-                            logger.error(errorMessage);
-                            response.put("error", errorMessage);
-                            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-                        }
-                        csvDate = nextRecord[dateIndex];
-                        csvDate = csvDate.split(" ")[0];
-                        if (!GenericValidator.isDate(csvDate, DATE_FORMAT, true)) {
-                            errorMessage = "datetime must be yyyy-MM-dd HH:mm:ss format";
-                            logger.error(errorMessage);
-                            response.put("error", errorMessage);
-                            return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
-                        }
-                    } else {
-                        dateIndex = Arrays.asList(nextRecord).indexOf(START_TIME);
-                        if (dateIndex < 0) {
-                            dateIndex = Arrays.asList(nextRecord).indexOf("start_time");
-                        }
+                if (anonymizationBusiness.isNativeAudit()) {
+                    AuditResult result;
+                    try (permit) {
+                        result = anonymizationBusiness.audit(strPath, k, limitValue);
+                        permit.finished();
+                    } catch (DefaultException e) {
+                        deleteTempFile(strPath);
+                        return auditFailed(response, HttpStatus.BAD_REQUEST, e.getLocalizedMessage());
+                    }
+                    deleteTempFile(strPath);
 
+                    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(resultPath));
+                         JsonGenerator generator = new JsonFactory().createGenerator(out)) {
+                        result.writeJson(generator);
                     }
-                    counter++;
+                    resultCacheBusiness.put(cacheKey, resultPath);
+                    return jsonResponse(resultPath);
                 }
-                input.close();
-
-                ProcessBuilder processBuilder = new ProcessBuilder("python3", "/opt/utils/audit-v" + AUDIT_VERSION + ".py", "--input", strPath, "--k", k);
-                processBuilder.redirectErrorStream(true);
-                Process process = processBuilder.start();
-                //this will cause a timeout
-                int exitVal = process.waitFor();
-                String line;
-                StringBuilder out = new StringBuilder();
-                BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                if (exitVal == 0) {
-                    while ((line = br.readLine()) != null) {
-                        out.append(line);
-                    }
-                    br.close();
-                    deleteTempFile(strPath);
-                    ObjectMapper mapper = new ObjectMapper();
-                    JsonNode node = mapper.readValue(mapper.writeValueAsString(out).replaceAll("\"", "").replaceAll("'", "\""), JsonNode.class);
 
-                    response.put("data", node.get("data"));
-                    response.put("minK", node.get("minK"));
-                    return new ResponseEntity<>(response, HttpStatus.OK);
-                } else {
+                String out;
+                try (permit) {
+                    out = anonymizationBusiness.auditPython(strPath, k, handle);
+                    permit.finished();
+                } catch (DefaultException e) {
+                    logger.error(e.getLocalizedMessage());
+                    return auditFailed(response, HttpStatus.INTERNAL_SERVER_ERROR,
+                            "An error occurred while executing the file. Please check the file format.");
+                } finally {
                     deleteTempFile(strPath);
-                    errorMessage = "An error occurred while executing the file. Please check the file format.";
-                    logger.error(errorMessage);
-                    response.put("error", errorMessage);
-                    return new ResponseEntity<>(response, HttpStatus.INTERNAL_SERVER_ERROR);
                 }
+                ObjectMapper mapper = new ObjectMapper();
+                JsonNode node = mapper.readValue(mapper.writeValueAsString(out.replace("\n", "")).replaceAll("\"", "").replaceAll("'", "\""), JsonNode.class);
+
+                //the fields of the native engine: result and the number of traces at minK before the limit
+                JsonNode data = node.get("data");
+                JsonNode minK = node.get("minK");
+                response.put("result", AuditResult.result(Integer.parseInt(k.trim()), minK.asInt()));
+                response.put("data", limitAuditData(data, limitValue));
+                response.put("minK", minK);
+                response.put("total", data != null && data.isArray() && !data.isEmpty() ? data.get(0).size() : 0);
+                mapper.writeValue(resultPath.toFile(), response);
+                resultCacheBusiness.put(cacheKey, resultPath);
+                deleteTempFile(resultPath.toString());
+                return new ResponseEntity<>(response, HttpStatus.OK);
 
+            } catch (TaskRejectedException e) {
+                deleteTempFile(strPath);
+                return auditFailed(response, HttpStatus.SERVICE_UNAVAILABLE, "All audit workers are busy. Please try again later");
+            } catch (ProcessTimeoutException e) {
+                deleteTempFile(strPath);
+                return auditFailed(response, HttpStatus.GATEWAY_TIMEOUT, e.getMessage());
             } catch (IOException | InterruptedException e) {
                 deleteTempFile(strPath);
-                errorMessage = e.getMessage();
-                if (errorMessage == null) {
-                    errorMessage = "Timeout exceeded";
-                }
-                logger.error(errorMessage);
-                response.put("error", errorMessage);
-                return new ResponseEntity<>(response, HttpStatus.GATEWAY_TIMEOUT);
+                return auditFailed(response, HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+            }
+        }, status -> {
+            deleteTempFile(strPath);
+            logger.error(TOO_MANY_REQUESTS);
+            response.put("error", TOO_MANY_REQUESTS);
+            return status.body(response);
+        });
+    }
+
+    private ResponseEntity<?> auditFailed(Map<String, Object> response, HttpStatus status, String errorMessage) {
+        if (errorMessage == null) {
+            errorMessage = status == HttpStatus.GATEWAY_TIMEOUT ? "Timeout exceeded" : status.getReasonPhrase();
+        }
+        logger.error(errorMessage);
+        response.put("error", errorMessage);
+        return new ResponseEntity<>(response, status);
+    }
+
+    //429 for requests the admission limit turned away
+    private ResponseEntity.BodyBuilder tooManyRequests(String workload) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(admissionBusiness.getRetryAfterSeconds(workload)));
+    }
+
+    //streams a stored json result and deletes it afterwards
+    private ResponseEntity<?> jsonResponse(Path resultPath) {
+        StreamingResponseBody body = FileDownloadUtil.stream(resultPath, 0, false);
+        StreamingResponseBody cleanUp = out -> {
+            try {
+                body.writeTo(out);
+            } finally {
+                deleteTempFile(resultPath.toString());
             }
         };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(cleanUp);
+    }
+
+    @GetMapping("/mobility/cache")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("data", resultCacheBusiness.getStats());
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    @GetMapping("/mobility/detectionCache")
+    public ResponseEntity<Map<String, Object>> getDetectionCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("data", traceIndexBusiness.getStats());
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    @GetMapping("/mobility/admission")
+    public ResponseEntity<Map<String, Object>> getAdmissionStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("data", admissionBusiness.getStats());
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
 
+    @GetMapping("/mobility/executors")
+    public ResponseEntity<Map<String, Object>> getExecutorStats() {
+        Map<String, Object> data = new TreeMap<>();
+        executors.forEach((name, executor) -> data.put(name, executor.getStats()));
+        Map<String, Object> response = new HashMap<>();
+        response.put("data", data);
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    private JsonNode limitAuditData(JsonNode data, Integer limit) {
+        if (limit == null || data == null || !data.isArray() || data.isEmpty()) {
+            return data;
+        }
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode traces = mapper.createObjectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = data.get(0).fields();
+        while (fields.hasNext() && traces.size() < limit) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            traces.set(field.getKey(), field.getValue());
+        }
+        return mapper.createArrayNode().add(traces);
     }
 
     @GetMapping("/deviceToVisitorId")
@@ -954,13 +1332,15 @@ public class MobilityController {
 
     //URL for MDS publish /share
     @GetMapping("/mobility")
-    public ResponseEntity<?> downloadMobility(@RequestParam String datasetDefinition) throws IOException {
+    public ResponseEntity<?> downloadMobility(@RequestParam String datasetDefinition,
+                                              HttpServletRequest request) throws IOException {
         HttpHeaders responseHeaders = new HttpHeaders();
 
         String path = "/data/mobility/" + datasetDefinition + "/";
         File dir = new File(path);
-        File[] files = dir.listFiles();
-        if (files == null) {
+        //the trace indexes live in the same directory, the gzip copies are sent by FileDownloadUtil in place of the csv
+        File[] files = dir.listFiles((d, name) -> name.startsWith("dataset-"));
+        if (files == null || files.length == 0) {
             String str = "File not found";
             ByteArrayResource resource = new ByteArrayResource(str.getBytes(StandardCharsets.UTF_8));
             ContentDisposition contentDisposition = ContentDisposition.builder("inline")
@@ -978,78 +1358,16 @@ public class MobilityController {
         } else {
             Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
             File fi = files[0];
-            BufferedReader file = new BufferedReader(
-                    new InputStreamReader(new FileSystemResource(fi).getInputStream()));
-            StringBuffer inputBuffer = new StringBuffer();
-            String line;
-
-            while ((line = file.readLine()) != null) {
-                inputBuffer.append(line);
-                inputBuffer.append('\n');
-            }
-            file.close();
-            String inputStr = inputBuffer.toString();
 
             ContentDisposition contentDisposition = ContentDisposition.builder("inline")
-                    .filename(fi.getName())
+                    .filename(CompressedCsv.csvName(fi.toPath()))
                     .build();
             responseHeaders.setContentDisposition(contentDisposition);
-            InputStream stream = new ByteArrayInputStream(inputStr.getBytes(StandardCharsets.UTF_8));
-            InputStreamResource resource = new InputStreamResource(stream);
-            return ResponseEntity.ok()
-                    .headers(responseHeaders)
-                    .contentLength(stream.available())
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .body(resource);
-        }
-
-    }
-
-    private static VisitorTracks createVisitorTrack(String[] metadata) {
-        int siteId, regionId, populationType, globalId;
-        String beginTime, endTime, visitorId;
-        //site_id,region_id,visitor_id,device_id,device_type,population_type,global_id,first_time_seen,last_time_seen
-        try {
-
-            siteId = Integer.parseInt(metadata[0]);
-            regionId = Integer.parseInt(metadata[1]);
-            visitorId = metadata[2];
-            populationType = Integer.parseInt(metadata[5]);
-            globalId = Integer.parseInt(metadata[6]);
-
-            beginTime = metadata[7];
-            endTime = metadata[8];
-
-            return new VisitorTracks(siteId, regionId, visitorId, populationType, globalId, beginTime, endTime);
-
-        } catch (Exception e) {
-            logger.error(e.getMessage());
-            return null;
+            return FileDownloadUtil.download(request, responseHeaders, fi.toPath());
         }
-    }
-
-    private static VisitorTracksNew createVisitorTrackNew(String[] metadata) {
-        int datasetId, locationId;
-        String startTime, endTime, distance, anonymizedUniqueId;
-        //dataset_id,location_id,anonymized_unique_id,start_time,end_time,distance
-        try {
-
-            datasetId = Integer.parseInt(metadata[0]);
-            locationId = Integer.parseInt(metadata[1]);
-            anonymizedUniqueId = metadata[2];
-            startTime = metadata[3];
-            endTime = metadata[4];
-            distance = metadata[5];
 
-            return new VisitorTracksNew(datasetId, locationId, anonymizedUniqueId, startTime, endTime, distance);
-
-        } catch (Exception e) {
-            logger.error(e.getMessage());
-            return null;
-        }
     }
 
-
     private static String formatToValidMac(String mac) {
         return mac.replaceAll("[^a-zA-Z0-9]", "").toUpperCase();
     }
@@ -1132,10 +1450,11 @@ public class MobilityController {
         return true;
     }
 
-    private ResponseEntity<byte[]> handleInternal(DatasetDefinition datasetDefinition, UUID[] datasetIds) {
+    //the zip of the internal server is passed on to the client as it arrives, the download counts once all of it is sent
+    private ResponseEntity<?> handleInternal(DatasetDefinition datasetDefinition, UUID[] datasetIds,
+                                             HttpServletRequest request) {
         logger.info("downloading from internal server");
         //download from internal archive server
-        RestTemplateClient restTemplate = new RestTemplateClient();
         if (datasetDefinition.getServer() == null) {
             logger.error("No internal server specified");
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
@@ -1146,65 +1465,86 @@ public class MobilityController {
             String uri = domain + "/internal/mobility/download";
             logger.info(uri);
             String strList = Arrays.toString(datasetIds);
-            String url = UriComponentsBuilder
+            URI url = UriComponentsBuilder
                     .fromUriString(uri)
                     .queryParam("datasetDefinitionId", datasetDefinition.getId().toString())
                     .queryParam("datasetIds", strList.substring(1, strList.length() - 1).replaceAll(" ", "").trim())
-                    .build().toUriString();
+                    .build().toUri();
+            ClientHttpResponse response = null;
             try {
-                ResponseEntity<Resource> exchange = restTemplate.restTemplate()
-                        .exchange(url, HttpMethod.GET, null, Resource.class);
-                byte[] inputStream = Objects.requireNonNull(exchange.getBody()).getContentAsByteArray();
+                ClientHttpRequest internalRequest = internalRequestFactory.createRequest(url, HttpMethod.GET);
+                String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+                if (acceptEncoding != null) {
+                    internalRequest.getHeaders().set(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+                }
+                response = internalRequest.execute();
+                int status = response.getStatusCode().value();
+                if (status != HttpStatus.OK.value()) {
+                    logger.error("internal server answered " + status);
+                    response.close();
+                    return new ResponseEntity<>(status == HttpStatus.NO_CONTENT.value() ?
+                            HttpStatus.NO_CONTENT : HttpStatus.INTERNAL_SERVER_ERROR);
+                }
 
-                incrementDownload(datasetDefinition.getId());
+                HttpHeaders responseHeaders = new HttpHeaders();
+                for (String name : List.of(HttpHeaders.CONTENT_LENGTH, HttpHeaders.CONTENT_ENCODING, HttpHeaders.VARY)) {
+                    List<String> values = response.getHeaders().get(name);
+                    if (values != null) {
+                        responseHeaders.put(name, values);
+                    }
+                }
+                ClientHttpResponse internalResponse = response;
+                StreamingResponseBody body = out -> {
+                    try (internalResponse; InputStream in = internalResponse.getBody()) {
+                        byte[] buffer = new byte[1 << 16];
+                        int length;
+                        while ((length = in.read(buffer)) >= 0) {
+                            out.write(buffer, 0, length);
+                        }
+                        out.flush();
+                    } catch (IOException e) {
+                        logger.error("internal download stopped: " + e.getMessage());
+                        throw e;
+                    }
+                    incrementDownload(datasetDefinition.getId());
+                };
 
                 return ResponseEntity.ok()
+                        .headers(responseHeaders)
                         .header(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, HttpHeaders.CONTENT_DISPOSITION)
                         .header(HttpHeaders.CONTENT_DISPOSITION, "attachment;filename=datasets.zip")
-                        .contentType(MediaType.parseMediaType("application/zip")).body(inputStream);
-            } catch (KeyStoreException | NoSuchAlgorithmException | KeyManagementException |
-                     IOException ex) {
+                        .contentType(MediaType.parseMediaType("application/zip")).body(body);
+            } catch (IOException ex) {
                 logger.error(ex.getMessage());
+                if (response != null) {
+                    response.close();
+                }
                 return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
             }
         }
         return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
-    private ResponseEntity<byte[]> handlePublic(UUID datasetDefinitionId, UUID[] datasetIds) {
-        String path = "/data/mobility/" + datasetDefinitionId;
-        File dir = new File(path);
-
-        StreamingResponseBody streamResponse = clientOut -> {
-            try (ZipOutputStream zos = new ZipOutputStream(clientOut)) {
-                for (UUID datasetId : datasetIds) {
-                    FileFilter fileFilter = new WildcardFileFilter("*dataset-" + datasetId + "-*");
-                    File[] files = dir.listFiles(fileFilter);
-
-                    if (files != null && files.length > 0) {
-                        File fi = files[0];
-                        addToZipFile(zos, new FileSystemResource(fi).getInputStream(), fi.getName());
-
-                    }
+    //the zip is written to the client while it is read from disk, the download counts once the last entry is sent
+    private ResponseEntity<StreamingResponseBody> handlePublic(UUID datasetDefinitionId, UUID[] datasetIds) {
+        List<Path> files = new ArrayList<>();
+        try {
+            for (UUID datasetId : datasetIds) {
+                DatasetLocator.Location location = datasetLocator.find(datasetDefinitionId.toString(), datasetId.toString());
+                if (location != null) {
+                    files.add(location.file());
                 }
-            } finally {
-                clientOut.close();
             }
-
-        };
-        ByteArrayOutputStream os = new ByteArrayOutputStream(1024);
-        incrementDownload(datasetDefinitionId);
-        try {
-            streamResponse.writeTo(os);
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, HttpHeaders.CONTENT_DISPOSITION)
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment;filename=datasets.zip")
-                    .contentType(MediaType.parseMediaType("application/zip")).body(os.toByteArray());
-
-        } catch (IOException ex) {
-            logger.error(ex.getMessage());
+        } catch (IOException e) {
+            logger.error(e.getMessage());
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, HttpHeaders.CONTENT_DISPOSITION)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment;filename=datasets.zip")
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(FileDownloadUtil.zip(files, () -> incrementDownload(datasetDefinitionId)));
     }
 
     private void incrementDownload(UUID datasetDefinitionId) {
@@ -1217,18 +1557,6 @@ public class MobilityController {
         }
     }
 
-    private void addToZipFile(ZipOutputStream zos, InputStream fis, String filename) throws IOException {
-        ZipEntry zipEntry = new ZipEntry(filename);
-        zos.putNextEntry(zipEntry);
-        byte[] bytes = new byte[1024];
-        int length;
-        while ((length = fis.read(bytes)) >= 0) {
-            zos.write(bytes, 0, length);
-        }
-        zos.closeEntry();
-        fis.close();
-    }
-
     public static boolean isNumeric(String str) {
         try {
             Double.parseDouble(str);
@@ -1254,71 +1582,6 @@ public class MobilityController {
 
     }
 
-    private void saveDataset(long i, UUID uuid, DatasetDefinition ds, String csvDate, DatasetDefinitionDTO dto) {
-        long dataPoints = i - 1;
-        logger.info("dataPoints:" + dataPoints);
-        Dataset d = new Dataset();
-
-        d.setId(uuid);
-        d.setDatasetDefinition(ds);
-        d.setStartDate(Date.valueOf(csvDate));
-        d.setEndDate(Date.valueOf(csvDate));
-        d.setResolution(dto.getResolution());
-        d.setK(dto.getK());
-        d.setDataPoints(dataPoints);
-
-        datasetBusiness.save(d);
-    }
-
-    private void publishMDS(DatasetDefinition ds) {
-        if (ds.getPublishMDS()) {
-            ///////////////////////////////////////////////////////////////////////////////////////
-            //This section is for publishing dataset to Mobility Data Spaces data catalog using API
-            //See /opt/mobility-app.properties file
-            String accessToken = mdsBusiness.getAuthenticationToken();
-            logger.info(accessToken);
-            if (accessToken != null) {
-                mdsBusiness.createAsset(ds, accessToken);
-            }
-            ///////////////////////////////////////////////////////////////////////////////////////
-        }
-    }
-
-    private String getCSVDate(String strPath) {
-        try {
-            Scanner input = new Scanner(new File(strPath));
-            int counter = 0;
-            String csvDate = null;
-            int dateIndex = -1;
-            while (input.hasNextLine() && counter < 2) {
-                String[] nextRecord = input.nextLine().split(",");
-
-                if (counter > 0) {
-                    if (dateIndex < 0) {
-                        return null;
-                    }
-                    csvDate = nextRecord[dateIndex];
-                    csvDate = csvDate.split(" ")[0];
-                    if (!GenericValidator.isDate(csvDate, DATE_FORMAT, true)) {
-                        return null;
-                    }
-                } else {
-                    dateIndex = Arrays.asList(nextRecord).indexOf(START_TIME);
-                    if (dateIndex < 0) {
-                        dateIndex = Arrays.asList(nextRecord).indexOf("start_time");
-                    }
-
-                }
-                counter++;
-            }
-            input.close();
-            return csvDate;
-        } catch (IOException e) {
-            return null;
-        }
-
-    }
-
     private ResponseEntity<?> validateUpload(MultipartFile file, DatasetDefinitionDTO dto) {
         String errorMessage;
 
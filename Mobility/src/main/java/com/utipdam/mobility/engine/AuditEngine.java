@@ -0,0 +1,81 @@
+package com.utipdam.mobility.engine;
+
+import com.utipdam.engine.InvalidInputException;
+import com.utipdam.engine.SpilledTraceTable;
+import com.utipdam.engine.TraceSignature;
+import com.utipdam.engine.TraceTable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+//in-process equivalent of audit-v*.py: smallest trace count (minK) and the traces that have it
+public class AuditEngine {
+    private final ForkJoinPool pool;
+
+    public AuditEngine() {
+        this(null);
+    }
+
+    //rows are hash-partitioned by unique id across the pool, the result is the same as the serial run
+    public AuditEngine(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    //limit keeps only the first n offending traces in tuple order, null or < 1 returns all of them
+    public AuditResult audit(Reader input, int k, Integer limit) throws IOException, InvalidInputException {
+        TraceTable table = TraceTable.read(input, false, pool);
+
+        OffendingTraces offending = new OffendingTraces(limit);
+        offending.addAll(table.getCounts());
+        return offending.toResult(k);
+    }
+
+    //same result as audit() but rows are spilled to disk in partitions, for files larger than the heap
+    public AuditResult audit(Reader input, int k, Integer limit, Path spillDirectory, int partitions)
+            throws IOException, InvalidInputException {
+        try (SpilledTraceTable table = SpilledTraceTable.read(input, false, spillDirectory, partitions)) {
+            OffendingTraces offending = new OffendingTraces(limit);
+            table.forEachTracePartition((counts, entries) -> offending.addAll(counts));
+            return offending.toResult(k);
+        }
+    }
+
+    //traces with the smallest count seen so far, bounded to the first limit traces in tuple order
+    private static class OffendingTraces {
+        private final Integer limit;
+        private final PriorityQueue<TraceSignature> traces = new PriorityQueue<>(Comparator.reverseOrder());
+        private int minK = Integer.MAX_VALUE;
+        private int total;
+
+        OffendingTraces(Integer limit) {
+            this.limit = limit == null || limit < 1 ? null : limit;
+        }
+
+        void addAll(Map<TraceSignature, Integer> counts) {
+            for (Map.Entry<TraceSignature, Integer> entry : counts.entrySet()) {
+                int count = entry.getValue();
+                if (count < minK) {
+                    minK = count;
+                    total = 0;
+                    traces.clear();
+                }
+                if (count == minK) {
+                    total++;
+                    traces.add(entry.getKey());
+                    if (limit != null && traces.size() > limit) {
+                        traces.poll();
+                    }
+                }
+            }
+        }
+
+        AuditResult toResult(int k) {
+            List<TraceSignature> sorted = new ArrayList<>(traces);
+            Collections.sort(sorted);
+            return new AuditResult(k, minK, total, sorted);
+        }
+    }
+}
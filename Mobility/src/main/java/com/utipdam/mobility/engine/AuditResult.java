@@ -0,0 +1,49 @@
+package com.utipdam.mobility.engine;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.utipdam.engine.TraceSignature;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.util.List;
+
+@Getter
+public class AuditResult {
+    private final int k;
+    private final int minK;
+    private final int total;
+    private final List<TraceSignature> traces;
+
+    public AuditResult(int k, int minK, int total, List<TraceSignature> traces) {
+        this.k = k;
+        this.minK = minK;
+        this.total = total;
+        this.traces = traces;
+    }
+
+    public String getResult() {
+        return result(k, minK);
+    }
+
+    //fail when some trace is shared by fewer than k visitors
+    public static String result(int k, int minK) {
+        return k > minK ? "fail" : "success";
+    }
+
+    //same shape as the python audit response: {"data": [{"[1, 2]": minK, ...}], "minK": minK}
+    public void writeJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("result", getResult());
+        generator.writeArrayFieldStart("data");
+        generator.writeStartObject();
+        for (TraceSignature trace : traces) {
+            generator.writeNumberField(trace.toString(), minK);
+        }
+        generator.writeEndObject();
+        generator.writeEndArray();
+        generator.writeNumberField("minK", minK);
+        generator.writeNumberField("total", total);
+        generator.writeEndObject();
+        generator.flush();
+    }
+}
@@ -0,0 +1,118 @@
+package com.utipdam.mobility.engine;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.CSVWriter;
+import com.opencsv.RFC4180ParserBuilder;
+import com.opencsv.exceptions.CsvValidationException;
+import com.utipdam.engine.CsvLayout;
+import com.utipdam.engine.InvalidInputException;
+import com.utipdam.mobility.exception.DefaultException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+//splits uploads by the date of start_time / first_time_seen into one csv per day, in a single pass over the rows
+public class DailySplitter implements Closeable {
+    public static final int MAX_DAYS = 366;
+
+    private final Path directory;
+    private final String prefix;
+    private final SortedMap<LocalDate, Path> files = new TreeMap<>();
+    private final Map<LocalDate, CSVWriter> writers = new HashMap<>();
+    private String[] header;
+
+    public DailySplitter(Path directory, String prefix) {
+        this.directory = directory;
+        this.prefix = prefix;
+    }
+
+    //adds one csv, every csv added must have the same header
+    public void add(Reader reader) throws IOException, DefaultException {
+        try (CSVReader csvReader = new CSVReaderBuilder(reader).withCSVParser(new RFC4180ParserBuilder().build()).build()) {
+            String[] fileHeader = csvReader.readNext();
+            if (fileHeader != null && fileHeader.length > 0) {
+                fileHeader[0] = fileHeader[0].replace("\uFEFF", "");
+            }
+            int startIndex;
+            try {
+                startIndex = CsvLayout.of(fileHeader).getStartIndex();
+            } catch (InvalidInputException e) {
+                throw new DefaultException(e.getMessage());
+            }
+            if (header == null) {
+                header = fileHeader;
+            } else if (!Arrays.equals(header, fileHeader)) {
+                throw new DefaultException("All files must have the same columns");
+            }
+
+            String[] record;
+            long lineNumber = 1;
+            while ((record = csvReader.readNext()) != null) {
+                lineNumber++;
+                if (record.length == 1 && record[0].isBlank()) {
+                    continue;
+                }
+                if (record.length <= startIndex) {
+                    throw new DefaultException("Invalid row at line " + lineNumber);
+                }
+                writer(parseDate(record[startIndex])).writeNext(record, false);
+            }
+        } catch (CsvValidationException e) {
+            throw new DefaultException("An error occurred while reading file. " + e.getMessage());
+        }
+    }
+
+    //closes the daily files and hands them over by date, close() no longer deletes them
+    public SortedMap<LocalDate, Path> finish() throws IOException {
+        closeWriters();
+        SortedMap<LocalDate, Path> result = new TreeMap<>(files);
+        files.clear();
+        return result;
+    }
+
+    //deletes the daily files that were not handed over
+    @Override
+    public void close() throws IOException {
+        closeWriters();
+        for (Path file : files.values()) {
+            Files.deleteIfExists(file);
+        }
+        files.clear();
+    }
+
+    private CSVWriter writer(LocalDate date) throws IOException, DefaultException {
+        CSVWriter writer = writers.get(date);
+        if (writer == null) {
+            if (files.size() >= MAX_DAYS) {
+                throw new DefaultException("A file can contain at most " + MAX_DAYS + " days");
+            }
+            Path file = directory.resolve(prefix + "-" + date + ".csv");
+            files.put(date, file);
+            writer = new CSVWriter(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), 1 << 16));
+            writer.writeNext(header, false);
+            writers.put(date, writer);
+        }
+        return writer;
+    }
+
+    private void closeWriters() throws IOException {
+        for (CSVWriter writer : writers.values()) {
+            writer.close();
+        }
+        writers.clear();
+    }
+
+    private static LocalDate parseDate(String value) throws DefaultException {
+        try {
+            return LocalDate.parse(value.trim().split("[ T]")[0]);
+        } catch (DateTimeParseException e) {
+            throw new DefaultException("datetime must be yyyy-MM-dd HH:mm:ss format. You provided " + value);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.utipdam.mobility.engine;
+
+import com.utipdam.engine.InvalidInputException;
+import com.utipdam.engine.TraceTable;
+import com.utipdam.mobility.exception.DefaultException;
+import lombok.Getter;
+import org.apache.commons.io.input.TeeInputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.HexFormat;
+
+//one pass over an upload: copies the bytes, computes their SHA-256 and, when validating, checks every row like the engines
+//do. the engine parses the saved file again when the job runs
+@Getter
+public class UploadSummary {
+    private static final long NANOS_PER_DAY = 86_400_000_000_000L;
+
+    private final String sha256;
+    //date of the first row, null when not validating
+    private final LocalDate firstDate;
+
+    private UploadSummary(String sha256, LocalDate firstDate) {
+        this.sha256 = sha256;
+        this.firstDate = firstDate;
+    }
+
+    public static UploadSummary scan(InputStream input, OutputStream copy, boolean validate) throws IOException, DefaultException {
+        MessageDigest digest = sha256();
+        InputStream in = new DigestInputStream(new TeeInputStream(input, copy, false), digest);
+        if (!validate) {
+            in.transferTo(OutputStream.nullOutputStream());
+            return new UploadSummary(HexFormat.of().formatHex(digest.digest()), null);
+        }
+
+        LocalDate[] firstDate = new LocalDate[1];
+        try {
+            TraceTable.scan(new InputStreamReader(in, StandardCharsets.UTF_8), false, (uniqueId, locationId, startTime, endTime, line) -> {
+                if (firstDate[0] == null) {
+                    firstDate[0] = LocalDate.ofEpochDay(Math.floorDiv(startTime, NANOS_PER_DAY));
+                }
+            });
+        } catch (InvalidInputException e) {
+            throw new DefaultException(e.getMessage());
+        }
+        return new UploadSummary(HexFormat.of().formatHex(digest.digest()), firstDate[0]);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
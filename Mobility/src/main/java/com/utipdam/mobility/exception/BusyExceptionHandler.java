@@ -0,0 +1,32 @@
+package com.utipdam.mobility.exception;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+//a request whose executor queue is full gets 503 instead of waiting behind an unbounded backlog
+@RestControllerAdvice
+public class BusyExceptionHandler {
+    private static final Logger logger = LoggerFactory.getLogger(BusyExceptionHandler.class);
+
+    private static final String RETRY_AFTER_SECONDS = "5";
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<Map<String, Object>> handleRejected(RejectedExecutionException e) {
+        String errorMessage = "The server is busy. Please try again later";
+        logger.error(errorMessage + ": " + e.getMessage());
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", errorMessage);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(response);
+    }
+}
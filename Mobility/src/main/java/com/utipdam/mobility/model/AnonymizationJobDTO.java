@@ -0,0 +1,48 @@
+package com.utipdam.mobility.model;
+
+import com.utipdam.mobility.model.entity.AnonymizationJob;
+import com.utipdam.mobility.model.entity.Dataset;
+import com.utipdam.mobility.model.entity.JobStatus;
+import lombok.Data;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+@Data
+public class AnonymizationJobDTO {
+    private UUID id;
+    private UUID datasetDefinitionId;
+    private JobStatus status;
+    private Integer progress;
+    private Integer k;
+    private String sha256;
+    private String fileName;
+    private String message;
+    private Timestamp createdAt;
+    private Timestamp startedAt;
+    private Timestamp finishedAt;
+    private Long elapsedMs;
+    private Dataset dataset;
+
+    public AnonymizationJobDTO() {
+    }
+
+    public AnonymizationJobDTO(AnonymizationJob job, Dataset dataset) {
+        this.id = job.getId();
+        this.datasetDefinitionId = job.getDatasetDefinitionId();
+        this.status = job.getStatus();
+        this.progress = job.getProgress();
+        this.k = job.getK();
+        this.sha256 = job.getSha256();
+        this.fileName = job.getFileName();
+        this.message = job.getMessage();
+        this.createdAt = job.getCreatedAt();
+        this.startedAt = job.getStartedAt();
+        this.finishedAt = job.getFinishedAt();
+        if (job.getStartedAt() != null) {
+            long end = job.getFinishedAt() == null ? System.currentTimeMillis() : job.getFinishedAt().getTime();
+            this.elapsedMs = end - job.getStartedAt().getTime();
+        }
+        this.dataset = dataset;
+    }
+}
@@ -0,0 +1,12 @@
+package com.utipdam.mobility.model;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+public class VisitorDetectionBatchDTO {
+    private List<UUID> datasetIds;
+    private List<Integer[]> locationIds;
+}
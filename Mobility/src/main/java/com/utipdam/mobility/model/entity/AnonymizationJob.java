@@ -0,0 +1,59 @@
+package com.utipdam.mobility.model.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+@Entity(name = "anonymization_job")
+@Data
+public class AnonymizationJob {
+    @Id
+    @Column(name = "id")
+    private UUID id;
+
+    @Column(name = "dataset_definition_id")
+    private UUID datasetDefinitionId;
+
+    @Column(name = "dataset_id")
+    private UUID datasetId;
+
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "sha256", length = 64)
+    private String sha256;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", length = 20)
+    private JobStatus status = JobStatus.QUEUED;
+
+    @Column(name = "k")
+    private Integer k;
+
+    @Column(name = "resolution")
+    private String resolution;
+
+    @Column(name = "progress")
+    private Integer progress = 0;
+
+    @Column(name = "file_name")
+    private String fileName;
+
+    @Column(name = "message", length = 1000)
+    private String message;
+
+    @Column(name = "created_at")
+    private Timestamp createdAt = new Timestamp(System.currentTimeMillis());
+
+    @Column(name = "started_at")
+    private Timestamp startedAt;
+
+    @Column(name = "finished_at")
+    private Timestamp finishedAt;
+
+    public AnonymizationJob() {
+    }
+
+}
@@ -0,0 +1,8 @@
+package com.utipdam.mobility.model.entity;
+
+public enum JobStatus {
+    QUEUED,
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
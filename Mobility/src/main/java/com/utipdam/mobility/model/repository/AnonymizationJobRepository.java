@@ -0,0 +1,14 @@
+package com.utipdam.mobility.model.repository;
+
+import com.utipdam.mobility.model.entity.AnonymizationJob;
+import com.utipdam.mobility.model.entity.JobStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface AnonymizationJobRepository extends JpaRepository<AnonymizationJob, UUID> {
+    List<AnonymizationJob> findAllByStatusIn(@Param("status") Collection<JobStatus> status);
+}
@@ -0,0 +1,34 @@
+package com.utipdam.mobility.model.service;
+
+import com.utipdam.mobility.model.entity.AnonymizationJob;
+import com.utipdam.mobility.model.entity.JobStatus;
+import com.utipdam.mobility.model.repository.AnonymizationJobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Service
+public class AnonymizationJobService {
+    private final AnonymizationJobRepository anonymizationJobRepository;
+
+    @Autowired
+    public AnonymizationJobService(AnonymizationJobRepository anonymizationJobRepository) {
+        this.anonymizationJobRepository = anonymizationJobRepository;
+    }
+
+    public Optional<AnonymizationJob> findById(UUID id) {
+        return anonymizationJobRepository.findById(id);
+    }
+
+    public List<AnonymizationJob> findAllByStatus(Collection<JobStatus> status) {
+        return anonymizationJobRepository.findAllByStatusIn(status);
+    }
+
+    public AnonymizationJob save(AnonymizationJob job) {
+        return anonymizationJobRepository.save(job);
+    }
+}
@@ -0,0 +1,117 @@
+package com.utipdam.mobility;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+//the Range handling of dataset file downloads
+class FileDownloadUtilTest {
+    private static final String CSV = "dataset_id,location_id\n6502,3\n6502,1\n";
+    private static final int SIZE = CSV.length();
+
+    @TempDir
+    Path directory;
+
+    private Path file;
+
+    @BeforeEach
+    void writeFile() throws IOException {
+        file = directory.resolve("dataset-1-2024-05-01.csv");
+        Files.writeString(file, CSV, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void noRangeSendsTheWholeFile() throws IOException {
+        ResponseEntity<?> response = download(null);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(CSV, body(response));
+    }
+
+    @Test
+    void closedRange() throws IOException {
+        assertPartial(download("bytes=0-9"), 0, 9);
+        //a last byte past the end is cut at the end
+        assertPartial(download("bytes=23-1000"), 23, SIZE - 1);
+    }
+
+    @Test
+    void suffixRange() throws IOException {
+        assertPartial(download("bytes=-7"), SIZE - 7, SIZE - 1);
+        //a suffix longer than the file is the whole file
+        assertPartial(download("bytes=-1000"), 0, SIZE - 1);
+    }
+
+    @Test
+    void openEndedRange() throws IOException {
+        assertPartial(download("bytes=10-"), 10, SIZE - 1);
+        assertPartial(download("bytes=" + (SIZE - 1) + "-"), SIZE - 1, SIZE - 1);
+    }
+
+    @Test
+    void unsatisfiableRange() throws IOException {
+        for (String range : new String[]{"bytes=" + SIZE + "-", "bytes=1000-2000", "bytes=-0"}) {
+            ResponseEntity<?> response = download(range);
+            assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatusCode(), range);
+            assertEquals("bytes */" + SIZE, response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE), range);
+        }
+    }
+
+    @Test
+    void multipleAndMalformedRangesSendTheWholeFile() throws IOException {
+        for (String range : new String[]{"bytes=0-1,4-5", "bytes=9-3", "bytes=a-b", "items=0-9", "bytes=5"}) {
+            ResponseEntity<?> response = download(range);
+            assertEquals(HttpStatus.OK, response.getStatusCode(), range);
+            assertEquals(CSV, body(response), range);
+        }
+    }
+
+    @Test
+    void rangeWithStaleIfRangeSendsTheWholeFile() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"0-0\"");
+        ResponseEntity<?> response = FileDownloadUtil.download(request, new HttpHeaders(), file);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(CSV, body(response));
+
+        //the ETag of the first answer makes it apply
+        request.removeHeader(HttpHeaders.IF_RANGE);
+        request.addHeader(HttpHeaders.IF_RANGE, response.getHeaders().getETag());
+        assertPartial(FileDownloadUtil.download(request, new HttpHeaders(), file), 0, 9);
+    }
+
+    private ResponseEntity<?> download(String range) throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        if (range != null) {
+            request.addHeader(HttpHeaders.RANGE, range);
+        }
+        return FileDownloadUtil.download(request, new HttpHeaders(), file);
+    }
+
+    private static void assertPartial(ResponseEntity<?> response, int first, int last) throws IOException {
+        assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertEquals("bytes " + first + "-" + last + "/" + SIZE, response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(last - first + 1, response.getHeaders().getContentLength());
+        assertEquals(CSV.substring(first, last + 1), body(response));
+    }
+
+    private static String body(ResponseEntity<?> response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingResponseBody) response.getBody()).writeTo(out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,220 @@
+package com.utipdam.csv;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+//gzip copy of a dataset file, written next to it as <file>.gz when the dataset is stored and read in place of the csv
+//when only the copy is left. the deflated data, the crc of the trailer and the length of the csv kept in an extra field of
+//the header (the trailer only has it modulo 4GB) are all a zip entry needs, so downloads copy the data without deflating
+public class CompressedCsv {
+    public static final String SUFFIX = ".gz";
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int FHCRC = 2;
+    //subfield of the extra field holding the length of the csv
+    private static final byte SI1 = 'L';
+    private static final byte SI2 = 'N';
+
+    private final Path file;
+    private final long dataOffset;
+    private final long compressedSize;
+    private final long size;
+    private final int crc;
+
+    private CompressedCsv(Path file, long dataOffset, long compressedSize, long size, int crc) {
+        this.file = file;
+        this.dataOffset = dataOffset;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.crc = crc;
+    }
+
+    public static Path pathOf(Path csv) {
+        return csv.resolveSibling(csv.getFileName() + SUFFIX);
+    }
+
+    public static boolean isCompressed(Path file) {
+        return file.getFileName().toString().endsWith(SUFFIX);
+    }
+
+    //name of the csv the file is, or is the copy of
+    public static String csvName(Path file) {
+        String name = file.getFileName().toString();
+        return isCompressed(file) ? name.substring(0, name.length() - SUFFIX.length()) : name;
+    }
+
+    //the csv among the files of one dataset, else its gzip copy, null when there is neither
+    public static Path select(File[] files) {
+        Path compressed = null;
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (name.endsWith(".csv")) {
+                    return f.toPath();
+                }
+                if (name.endsWith(".csv" + SUFFIX)) {
+                    compressed = f.toPath();
+                }
+            }
+        }
+        return compressed;
+    }
+
+    //the contents of the csv, whichever of the two forms file is
+    public static InputStream open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        return isCompressed(file) ? new GZIPInputStream(in, BUFFER_SIZE) : new BufferedInputStream(in, BUFFER_SIZE);
+    }
+
+    //the gzip copy of the csv, written first when it is missing
+    public static CompressedCsv of(Path file) throws IOException {
+        Path compressed = isCompressed(file) ? file : pathOf(file);
+        if (!Files.exists(compressed)) {
+            write(file);
+        }
+        return read(compressed);
+    }
+
+    //writes <csv>.gz, a copy that is being written is never seen under that name
+    public static Path write(Path csv) throws IOException {
+        Path file = pathOf(csv);
+        Path tmp = Files.createTempFile(csv.getParent(), ".", SUFFIX + ".tmp");
+        try {
+            long size = Files.size(csv);
+            CRC32 crc = new CRC32();
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try (InputStream in = Files.newInputStream(csv);
+                 OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE)) {
+                out.write(header(size));
+                DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long read = 0;
+                int length;
+                while ((length = in.read(buffer)) >= 0) {
+                    crc.update(buffer, 0, length);
+                    deflated.write(buffer, 0, length);
+                    read += length;
+                }
+                if (read != size) {
+                    throw new IOException(csv + " changed while it was compressed");
+                }
+                deflated.finish();
+                ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                trailer.putInt((int) crc.getValue()).putInt((int) size);
+                out.write(trailer.array());
+            } finally {
+                deflater.end();
+            }
+            //readable like the csv, temporary files are created for the owner only. the copy keeps the time of the csv,
+            //which a zip entry of it shows and by which the latest dataset file is picked
+            tmp.toFile().setReadable(true, false);
+            Files.setLastModifiedTime(tmp, Files.getLastModifiedTime(csv));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return file;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    //reads the header and trailer of a single member gzip file
+    public static CompressedCsv read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer head = ByteBuffer.allocate((int) Math.min(fileSize, BUFFER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(head, 0);
+            head.flip();
+            if (head.remaining() < 18 || head.get() != (byte) 0x1f || head.get() != (byte) 0x8b || head.get() != 8) {
+                throw new IOException("Not a gzip file: " + file);
+            }
+            int flags = head.get();
+            head.position(10);
+            long size = -1;
+            if ((flags & FEXTRA) != 0) {
+                int end = (head.getShort() & 0xffff) + head.position();
+                while (head.position() + 4 <= end) {
+                    byte si1 = head.get();
+                    byte si2 = head.get();
+                    int length = head.getShort() & 0xffff;
+                    if (si1 == SI1 && si2 == SI2 && length == 8) {
+                        size = head.getLong();
+                    } else {
+                        head.position(head.position() + length);
+                    }
+                }
+                head.position(end);
+            }
+            if ((flags & FNAME) != 0) {
+                skipZeroTerminated(head);
+            }
+            if ((flags & FCOMMENT) != 0) {
+                skipZeroTerminated(head);
+            }
+            if ((flags & FHCRC) != 0) {
+                head.position(head.position() + 2);
+            }
+            long dataOffset = head.position();
+            if (fileSize - 8 < dataOffset) {
+                throw new IOException("Truncated gzip file: " + file);
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(trailer, fileSize - 8);
+            int crc = trailer.getInt(0);
+            if (size < 0) {
+                size = trailer.getInt(4) & 0xffffffffL;
+            }
+            return new CompressedCsv(file, dataOffset, fileSize - 8 - dataOffset, size, crc);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated gzip file: " + file);
+        }
+    }
+
+    private static byte[] header(long size) {
+        ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 0x1f).put((byte) 0x8b).put((byte) 8).put((byte) FEXTRA);
+        //no modification time, unknown file system
+        header.putInt(0).put((byte) 0).put((byte) 0xff);
+        header.putShort((short) 12).put(SI1).put(SI2).putShort((short) 8).putLong(size);
+        return header.array();
+    }
+
+    private static void skipZeroTerminated(ByteBuffer buffer) {
+        while (buffer.get() != 0) {
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    //position of the deflated data in the file
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    //length of the csv
+    public long getSize() {
+        return size;
+    }
+
+    public int getCrc() {
+        return crc;
+    }
+}
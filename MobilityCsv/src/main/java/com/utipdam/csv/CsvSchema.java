@@ -0,0 +1,85 @@
+package com.utipdam.csv;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+//columns of a mobility file, found by name in the header. the old format is
+//site_id,region_id,visitor_id,device_id,device_type,population_type,global_id,first_time_seen,last_time_seen,rssi_avg and
+//the new one dataset_id,location_id,anonymized_unique_id,start_time,end_time,distance
+public class CsvSchema {
+    public static final String[] NEW_HEADER = {"dataset_id", "location_id", "anonymized_unique_id", "start_time", "end_time", "distance"};
+
+    private final boolean newFormat;
+    private final int locationIndex;
+    private final int uniqueIdIndex;
+    private final int startIndex;
+    private final int endIndex;
+    //distance column of the new format, rssi_avg of the old one, -1 when there is none
+    private final int distanceIndex;
+    private final int columns;
+
+    private CsvSchema(List<String> header) throws IOException {
+        locationIndex = indexOf(header, "region_id", "location_id");
+        startIndex = indexOf(header, "first_time_seen", "start_time");
+        endIndex = indexOf(header, "last_time_seen", "end_time");
+        uniqueIdIndex = indexOf(header, "visitor_id", "anonymized_unique_id");
+        newFormat = Arrays.stream(NEW_HEADER).anyMatch(header::contains);
+        distanceIndex = header.indexOf(newFormat ? "distance" : "rssi_avg");
+        columns = Math.max(Math.max(locationIndex, uniqueIdIndex), Math.max(startIndex, endIndex)) + 1;
+    }
+
+    public static CsvSchema of(String headerLine) throws IOException {
+        if (headerLine == null || headerLine.isBlank()) {
+            throw new IOException("File header is required");
+        }
+        String[] header = headerLine.replace("\uFEFF", "").split(",", -1);
+        for (int i = 0; i < header.length; i++) {
+            header[i] = header[i].trim();
+            if (header[i].length() > 1 && header[i].startsWith("\"") && header[i].endsWith("\"")) {
+                header[i] = header[i].substring(1, header[i].length() - 1).trim();
+            }
+        }
+        return new CsvSchema(Arrays.asList(header));
+    }
+
+    public boolean isNewFormat() {
+        return newFormat;
+    }
+
+    public int getLocationIndex() {
+        return locationIndex;
+    }
+
+    public int getUniqueIdIndex() {
+        return uniqueIdIndex;
+    }
+
+    public int getStartIndex() {
+        return startIndex;
+    }
+
+    public int getEndIndex() {
+        return endIndex;
+    }
+
+    public int getDistanceIndex() {
+        return distanceIndex;
+    }
+
+    //fields a row needs, the distance may be missing
+    int getColumns() {
+        return columns;
+    }
+
+    private static int indexOf(List<String> header, String oldName, String newName) throws IOException {
+        int index = header.indexOf(oldName);
+        if (index < 0) {
+            index = header.indexOf(newName);
+        }
+        if (index < 0) {
+            throw new IOException("error in columns. " + newName + " is required");
+        }
+        return index;
+    }
+}
@@ -0,0 +1,225 @@
+package com.utipdam.csv;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//where the file of each dataset is, by dataset definition directory (<root>/<definitionId>). a directory is listed once,
+//the datasets found are kept in its datasets.idx, which is read instead when it is newer than the last change of the
+//directory. afterwards the files stored by the servers are recorded when they are written, and every other change of a
+//directory is picked up by a WatchService
+public class DatasetLocator implements Closeable {
+    public static final String INDEX_FILE = "datasets.idx";
+    private static final Pattern NAME = Pattern.compile("dataset-([0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12})-.*\\.csv(\\.gz)?");
+    private static final Logger logger = LoggerFactory.getLogger(DatasetLocator.class);
+
+    private final Path root;
+    private final Map<String, Map<String, Location>> directories = new ConcurrentHashMap<>();
+    private final Map<WatchKey, String> keys = new ConcurrentHashMap<>();
+    private WatchService watchService;
+
+    public DatasetLocator(Path root) {
+        this.root = root;
+    }
+
+    //the file of the dataset, its csv or else its gzip copy, null when there is none
+    public Location find(String definitionId, String datasetId) throws IOException {
+        Map<String, Location> datasets = load(definitionId);
+        Location location = datasets.get(datasetId);
+        if (location != null && !Files.exists(location.file())) {
+            //removed before the watcher saw it
+            update(root.resolve(definitionId), datasets, location.file().getFileName());
+            location = datasets.get(datasetId);
+        }
+        return location;
+    }
+
+    //after a dataset file or its gzip copy was written
+    public void record(Path datasetFile) throws IOException {
+        Path directory = datasetFile.getParent();
+        Map<String, Location> datasets = load(directory.getFileName().toString());
+        update(directory, datasets, datasetFile.getFileName());
+        save(directory, datasets);
+    }
+
+    //after the files of a dataset were deleted
+    public void remove(String definitionId, String datasetId) throws IOException {
+        Map<String, Location> datasets = directories.get(definitionId);
+        if (datasets != null && datasets.remove(datasetId) != null) {
+            save(root.resolve(definitionId), datasets);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private Map<String, Location> load(String definitionId) throws IOException {
+        Map<String, Location> datasets = directories.get(definitionId);
+        if (datasets != null) {
+            return datasets;
+        }
+        synchronized (this) {
+            datasets = directories.get(definitionId);
+            if (datasets != null) {
+                return datasets;
+            }
+            Path directory = root.resolve(definitionId);
+            if (!Files.isDirectory(directory)) {
+                return Map.of();
+            }
+            //watched before it is read, a change while it is read is seen again by the watcher
+            watch(directory, definitionId);
+            datasets = new ConcurrentHashMap<>();
+            Path indexFile = directory.resolve(INDEX_FILE);
+            if (Files.exists(indexFile) &&
+                    Files.getLastModifiedTime(indexFile).equals(Files.getLastModifiedTime(directory))) {
+                read(directory, indexFile, datasets);
+            } else {
+                scan(directory, datasets);
+                save(directory, datasets);
+            }
+            directories.put(definitionId, datasets);
+            return datasets;
+        }
+    }
+
+    private void scan(Path directory, Map<String, Location> datasets) throws IOException {
+        datasets.clear();
+        File[] files = directory.toFile().listFiles((d, name) -> NAME.matcher(name).matches());
+        if (files != null) {
+            for (File f : files) {
+                update(directory, datasets, f.toPath().getFileName());
+            }
+        }
+    }
+
+    //the entry of the dataset the file name belongs to, from what is on disk now. true when the entry changed
+    private boolean update(Path directory, Map<String, Location> datasets, Path name) throws IOException {
+        Matcher matcher = NAME.matcher(name.toString());
+        if (!matcher.matches()) {
+            return false;
+        }
+        String datasetId = matcher.group(1);
+        Path csv = directory.resolve(CompressedCsv.csvName(name));
+        Path compressed = CompressedCsv.pathOf(csv);
+        Location previous = datasets.get(datasetId);
+        try {
+            if (Files.exists(compressed)) {
+                CompressedCsv copy = CompressedCsv.read(compressed);
+                datasets.put(datasetId, new Location(Files.exists(csv) ? csv : compressed, copy.getSize(),
+                        copy.getCrc() & 0xffffffffL));
+            } else if (Files.exists(csv)) {
+                datasets.put(datasetId, new Location(csv, Files.size(csv), -1));
+            } else {
+                //only when the entry is this file, the temporary file of an upload is replaced by the dataset file
+                datasets.computeIfPresent(datasetId, (id, location) ->
+                        CompressedCsv.csvName(location.file()).equals(csv.getFileName().toString()) ? null : location);
+            }
+        } catch (NoSuchFileException e) {
+            //removed meanwhile, its delete event follows
+        }
+        return !Objects.equals(previous, datasets.get(datasetId));
+    }
+
+    private void read(Path directory, Path indexFile, Map<String, Location> datasets) throws IOException {
+        for (String line : Files.readAllLines(indexFile, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (fields.length == 4) {
+                datasets.put(fields[0], new Location(directory.resolve(fields[1]), Long.parseLong(fields[2]),
+                        Long.parseLong(fields[3])));
+            }
+        }
+    }
+
+    //the index gets the time of the directory after it is moved in, so that a later change of the directory shows
+    private void save(Path directory, Map<String, Location> datasets) throws IOException {
+        synchronized (datasets) {
+            Path indexFile = directory.resolve(INDEX_FILE);
+            Path tmp = directory.resolve(INDEX_FILE + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Location> entry : datasets.entrySet()) {
+                    Location location = entry.getValue();
+                    writer.write(entry.getKey() + "\t" + location.file().getFileName() + "\t" + location.size() + "\t" +
+                            location.checksum());
+                    writer.newLine();
+                }
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.setLastModifiedTime(indexFile, Files.getLastModifiedTime(directory));
+        }
+    }
+
+    private synchronized void watch(Path directory, String definitionId) throws IOException {
+        if (watchService == null) {
+            watchService = root.getFileSystem().newWatchService();
+            Thread watcher = new Thread(this::run, "dataset-locator");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+        keys.put(directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), definitionId);
+    }
+
+    private void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            String definitionId = keys.get(key);
+            Map<String, Location> datasets = definitionId == null ? null : directories.get(definitionId);
+            List<WatchEvent<?>> events = key.pollEvents();
+            if (datasets != null) {
+                Path directory = root.resolve(definitionId);
+                try {
+                    boolean changed = false;
+                    for (WatchEvent<?> event : events) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scan(directory, datasets);
+                            changed = true;
+                        } else if (!event.context().toString().startsWith(INDEX_FILE)) {
+                            //a file written in place, like a partial write, leaves the time of the directory as it is
+                            boolean updated = update(directory, datasets, (Path) event.context());
+                            changed |= updated || event.kind() != StandardWatchEventKinds.ENTRY_MODIFY;
+                        }
+                    }
+                    //a created or deleted file also changes the time of the directory, which the index has to match
+                    if (changed) {
+                        save(directory, datasets);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.error("dataset index of " + directory + " not updated: " + e.getMessage());
+                }
+            }
+            if (!key.reset()) {
+                //the directory was deleted
+                keys.remove(key);
+                if (definitionId != null) {
+                    directories.remove(definitionId);
+                }
+            }
+        }
+    }
+
+    //size and crc-32 of the csv, the checksum is -1 until the gzip copy is written
+    public record Location(Path file, long size, long checksum) {
+    }
+}
@@ -0,0 +1,167 @@
+package com.utipdam.csv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+//writes a zip of dataset files to a stream, each entry made of the deflated data of the file's gzip copy as it is.
+//entries and offsets past the limits of the zip format get zip64 records
+public class DeflatedZipWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long LIMIT = 0xffffffffL;
+    private static final int MAX_ENTRIES = 0xffff;
+    private static final short VERSION = 20;
+    private static final short VERSION_ZIP64 = 45;
+    //names are utf-8
+    private static final short FLAGS = 0x800;
+    private static final short DEFLATED = 8;
+
+    private final OutputStream out;
+    private final List<Entry> entries = new ArrayList<>();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private long written;
+
+    public DeflatedZipWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    //adds the dataset file, csv or gzip copy, as an entry named after the csv
+    public void add(Path file) throws IOException {
+        add(CompressedCsv.csvName(file), CompressedCsv.of(file));
+    }
+
+    public void add(String name, CompressedCsv compressed) throws IOException {
+        Entry entry = new Entry(name.getBytes(StandardCharsets.UTF_8), compressed.getCrc(), compressed.getCompressedSize(),
+                compressed.getSize(), dosTime(Files.getLastModifiedTime(compressed.getFile()).toMillis()), written);
+        boolean zip64 = entry.compressedSize >= LIMIT || entry.size >= LIMIT;
+        ByteBuffer header = buffer(30 + entry.name.length + (zip64 ? 20 : 0));
+        header.putInt(0x04034b50)
+                .putShort(zip64 ? VERSION_ZIP64 : VERSION)
+                .putShort(FLAGS)
+                .putShort(DEFLATED)
+                .putInt(entry.time)
+                .putInt(entry.crc)
+                .putInt((int) (zip64 ? LIMIT : entry.compressedSize))
+                .putInt((int) (zip64 ? LIMIT : entry.size))
+                .putShort((short) entry.name.length)
+                .putShort((short) (zip64 ? 20 : 0))
+                .put(entry.name);
+        if (zip64) {
+            header.putShort((short) 1).putShort((short) 16).putLong(entry.size).putLong(entry.compressedSize);
+        }
+        write(header);
+        copy(compressed.getFile(), compressed.getDataOffset(), compressed.getCompressedSize());
+        entries.add(entry);
+    }
+
+    //writes the central directory, the stream is left open
+    public void finish() throws IOException {
+        long directoryOffset = written;
+        for (Entry entry : entries) {
+            boolean sizes64 = entry.compressedSize >= LIMIT || entry.size >= LIMIT;
+            boolean offset64 = entry.offset >= LIMIT;
+            int extra = (sizes64 ? 16 : 0) + (offset64 ? 8 : 0);
+            ByteBuffer header = buffer(46 + entry.name.length + (extra > 0 ? 4 + extra : 0));
+            header.putInt(0x02014b50)
+                    .putShort(VERSION_ZIP64)
+                    .putShort(extra > 0 ? VERSION_ZIP64 : VERSION)
+                    .putShort(FLAGS)
+                    .putShort(DEFLATED)
+                    .putInt(entry.time)
+                    .putInt(entry.crc)
+                    .putInt((int) (sizes64 ? LIMIT : entry.compressedSize))
+                    .putInt((int) (sizes64 ? LIMIT : entry.size))
+                    .putShort((short) entry.name.length)
+                    .putShort((short) (extra > 0 ? 4 + extra : 0))
+                    //comment, disk, internal and external attributes
+                    .putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(0)
+                    .putInt((int) (offset64 ? LIMIT : entry.offset))
+                    .put(entry.name);
+            if (extra > 0) {
+                header.putShort((short) 1).putShort((short) extra);
+                if (sizes64) {
+                    header.putLong(entry.size).putLong(entry.compressedSize);
+                }
+                if (offset64) {
+                    header.putLong(entry.offset);
+                }
+            }
+            write(header);
+        }
+        long directorySize = written - directoryOffset;
+
+        boolean zip64 = entries.size() >= MAX_ENTRIES || directorySize >= LIMIT || directoryOffset >= LIMIT;
+        if (zip64) {
+            long recordOffset = written;
+            ByteBuffer record = buffer(56 + 20);
+            record.putInt(0x06064b50).putLong(44)
+                    .putShort(VERSION_ZIP64).putShort(VERSION_ZIP64)
+                    .putInt(0).putInt(0)
+                    .putLong(entries.size()).putLong(entries.size())
+                    .putLong(directorySize).putLong(directoryOffset);
+            //locator of the record
+            record.putInt(0x07064b50).putInt(0).putLong(recordOffset).putInt(1);
+            write(record);
+        }
+        ByteBuffer end = buffer(22);
+        end.putInt(0x06054b50)
+                .putShort((short) 0).putShort((short) 0)
+                .putShort((short) Math.min(entries.size(), MAX_ENTRIES))
+                .putShort((short) Math.min(entries.size(), MAX_ENTRIES))
+                .putInt((int) Math.min(directorySize, LIMIT))
+                .putInt((int) Math.min(directoryOffset, LIMIT))
+                .putShort((short) 0);
+        write(end);
+        out.flush();
+    }
+
+    private void copy(Path file, long position, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer view = ByteBuffer.wrap(buffer);
+            long end = position + length;
+            while (position < end) {
+                view.clear().limit((int) Math.min(buffer.length, end - position));
+                int read = channel.read(view, position);
+                if (read < 0) {
+                    throw new IOException("Truncated gzip file: " + file);
+                }
+                out.write(buffer, 0, read);
+                position += read;
+            }
+        }
+        written += length;
+    }
+
+    private void write(ByteBuffer header) throws IOException {
+        out.write(header.array(), 0, header.position());
+        written += header.position();
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    //ms-dos date and time, in the time zone of the server like java.util.zip
+    private static int dosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16 |
+                time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+    }
+
+    private record Entry(byte[] name, int crc, long compressedSize, long size, int time, long offset) {
+    }
+}
@@ -0,0 +1,437 @@
+package com.utipdam.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+//reads a mobility file straight from a memory mapping into primitive columns, without a String per field. rows with a
+//field that cannot be parsed are counted and left out. larger files are split on line boundaries into chunks that are
+//parsed in parallel, which assumes no quoted field spans lines, as in every file of both formats
+public class MobilityCsvParser {
+    private static final int HEADER_LIMIT = 1 << 16;
+    //a chunk is one mapping, mappings are limited to 2GB
+    private static final long MAX_CHUNK = 1L << 28;
+    private static final long MIN_CHUNK = 1L << 20;
+    private static final long INVALID = Long.MIN_VALUE;
+
+    //same bands as the python scripts and CsvLayout
+    private static final double[] RSSI_BINS = {-100, -90, -80, -70, -50, -1};
+    private static final String[] RSSI_LABELS = {"80m_to_100m", "60m_to_80m", "40m_to_60m", "20m_to_40m", "5m_to_20m"};
+
+    private MobilityCsvParser() {
+    }
+
+    public static TraceColumns parse(Path file) throws IOException {
+        return parse(file, null);
+    }
+
+    //pool null parses the file in the calling thread. a gzip copy (CompressedCsv) is inflated into a temporary file first
+    public static TraceColumns parse(Path file, ForkJoinPool pool) throws IOException {
+        if (CompressedCsv.isCompressed(file)) {
+            Path inflated = Files.createTempFile("mobility-", ".csv");
+            try {
+                try (InputStream in = CompressedCsv.open(file)) {
+                    Files.copy(in, inflated, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return parse(inflated, pool);
+            } finally {
+                Files.deleteIfExists(inflated);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer head = ByteBuffer.allocate((int) Math.min(size, HEADER_LIMIT));
+            channel.read(head, 0);
+            int headerEnd = indexOf(head, 0, head.position(), (byte) '\n');
+            String headerLine = new String(head.array(), 0, headerEnd < 0 ? head.position() : headerEnd, StandardCharsets.UTF_8);
+            CsvSchema schema = CsvSchema.of(headerLine);
+            long dataStart = headerEnd < 0 ? size : headerEnd + 1;
+
+            List<long[]> ranges = split(channel, dataStart, size, pool == null ? 1 : pool.getParallelism() * 4);
+            if (pool == null || ranges.size() == 1) {
+                List<TraceColumns> chunks = new ArrayList<>();
+                for (long[] range : ranges) {
+                    chunks.add(parse(channel, range, schema));
+                }
+                return TraceColumns.concat(schema.isNewFormat(), chunks);
+            }
+            try {
+                List<TraceColumns> chunks = pool.submit(() -> ranges.parallelStream().map(range -> {
+                    try {
+                        return parse(channel, range, schema);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }).toList()).get();
+                return TraceColumns.concat(schema.isNewFormat(), chunks);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while parsing " + file, e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof UncheckedIOException u ? u.getCause() : new IOException(e.getCause());
+            }
+        }
+    }
+
+    //[start, end) ranges of about equal size, each ending after a newline or at the end of the file
+    static List<long[]> split(FileChannel channel, long start, long size, int parts) throws IOException {
+        long length = size - start;
+        parts = (int) Math.max(Math.min(parts, length / MIN_CHUNK), (length + MAX_CHUNK - 1) / MAX_CHUNK);
+        List<long[]> ranges = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(1 << 12);
+        long from = start;
+        for (int i = 1; i < parts && from < size; i++) {
+            long to = Math.max(from, start + length * i / parts);
+            while (to < size) {
+                probe.clear();
+                int read = channel.read(probe, to);
+                int newline = indexOf(probe, 0, Math.max(read, 0), (byte) '\n');
+                if (newline >= 0) {
+                    to += newline + 1;
+                    break;
+                }
+                to += Math.max(read, 1);
+            }
+            to = Math.min(to, size);
+            if (to > from) {
+                ranges.add(new long[]{from, to});
+                from = to;
+            }
+        }
+        ranges.add(new long[]{from, size});
+        return ranges;
+    }
+
+    private static TraceColumns parse(FileChannel channel, long[] range, CsvSchema schema) throws IOException {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]);
+        return new ChunkParser(schema, buffer).parse();
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class ChunkParser {
+        private final CsvSchema schema;
+        private final ByteBuffer buffer;
+        private final int end;
+        private final int fields;
+        private final int[] fieldStart;
+        private final int[] fieldEnd;
+        private final TraceColumns columns;
+        //bytes of the distance labels seen in this chunk, by code
+        private final List<byte[]> labels = new ArrayList<>();
+        private final int[] rssiCodes = new int[RSSI_LABELS.length + 1];
+
+        ChunkParser(CsvSchema schema, ByteBuffer buffer) {
+            this.schema = schema;
+            this.buffer = buffer;
+            this.end = buffer.limit();
+            this.fields = Math.max(schema.getColumns(), schema.getDistanceIndex() + 1);
+            this.fieldStart = new int[fields];
+            this.fieldEnd = new int[fields];
+            //about 60 bytes per row
+            this.columns = new TraceColumns(schema.isNewFormat(), end / 60);
+            Arrays.fill(rssiCodes, -1);
+        }
+
+        TraceColumns parse() {
+            int p = 0;
+            while (p < end) {
+                p = parseLine(p);
+            }
+            return columns;
+        }
+
+        //reads the line starting at p and returns the start of the next one
+        private int parseLine(int p) {
+            int lineStart = p;
+            int field = 0;
+            while (true) {
+                int start;
+                int stop;
+                if (p < end && buffer.get(p) == '"') {
+                    start = ++p;
+                    while (p < end && !(buffer.get(p) == '"' && (p + 1 >= end || buffer.get(p + 1) != '"'))) {
+                        p += buffer.get(p) == '"' ? 2 : 1;
+                    }
+                    stop = p;
+                    while (p < end && buffer.get(p) != ',' && buffer.get(p) != '\n') {
+                        p++;
+                    }
+                } else {
+                    start = p;
+                    while (p < end && buffer.get(p) != ',' && buffer.get(p) != '\n') {
+                        p++;
+                    }
+                    stop = p > start && (p == end || buffer.get(p) == '\n') && buffer.get(p - 1) == '\r' ? p - 1 : p;
+                }
+                if (field < fields) {
+                    fieldStart[field] = start;
+                    fieldEnd[field] = stop;
+                }
+                field++;
+                if (p < end && buffer.get(p) == ',') {
+                    p++;
+                    continue;
+                }
+                break;
+            }
+            int next = p < end ? p + 1 : end;
+
+            int lineEnd = p > lineStart && buffer.get(p - 1) == '\r' ? p - 1 : p;
+            if (field == 1 && isBlank(lineStart, lineEnd)) {
+                columns.blankLine();
+            } else if (field < schema.getColumns() || !addRow(field)) {
+                columns.badRow();
+            }
+            return next;
+        }
+
+        private boolean addRow(int fieldCount) {
+            long location = parseInt(schema.getLocationIndex());
+            long start = parseTime(schema.getStartIndex());
+            long stop = parseTime(schema.getEndIndex());
+            if (location == INVALID || start == INVALID || stop == INVALID) {
+                return false;
+            }
+            int distance = schema.getDistanceIndex() >= 0 && schema.getDistanceIndex() < fieldCount ?
+                    distance(schema.getDistanceIndex()) : code(new byte[0]);
+            if (distance < 0) {
+                return false;
+            }
+            columns.add((int) location, visitorId(schema.getUniqueIdIndex()), start, stop, distance);
+            return true;
+        }
+
+        private long parseInt(int field) {
+            int p = skipSpaces(fieldStart[field], fieldEnd[field]);
+            int stop = trimEnd(p, fieldEnd[field]);
+            boolean negative = p < stop && buffer.get(p) == '-';
+            if (negative || (p < stop && buffer.get(p) == '+')) {
+                p++;
+            }
+            if (p == stop || stop - p > 10) {
+                return INVALID;
+            }
+            long value = 0;
+            for (; p < stop; p++) {
+                int digit = buffer.get(p) - '0';
+                if (digit < 0 || digit > 9) {
+                    return INVALID;
+                }
+                value = value * 10 + digit;
+            }
+            value = negative ? -value : value;
+            return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? INVALID : value;
+        }
+
+        //yyyy-MM-dd with an optional HH:mm:ss after a space or T and an optional fraction of a second, in UTC
+        private long parseTime(int field) {
+            int p = skipSpaces(fieldStart[field], fieldEnd[field]);
+            int length = trimEnd(p, fieldEnd[field]) - p;
+            if (length < 10 || buffer.get(p + 4) != '-' || buffer.get(p + 7) != '-') {
+                return INVALID;
+            }
+            int year = digits(p, 4);
+            int month = digits(p + 5, 2);
+            int day = digits(p + 8, 2);
+            if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+                return INVALID;
+            }
+            int seconds = 0;
+            if (length > 10) {
+                byte separator = buffer.get(p + 10);
+                if (length < 19 || (separator != ' ' && separator != 'T') || buffer.get(p + 13) != ':' || buffer.get(p + 16) != ':') {
+                    return INVALID;
+                }
+                int hour = digits(p + 11, 2);
+                int minute = digits(p + 14, 2);
+                int second = digits(p + 17, 2);
+                if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+                    return INVALID;
+                }
+                if (length > 19 && (buffer.get(p + 19) != '.' || length == 20 || length > 29 || digits(p + 20, length - 20) < 0)) {
+                    return INVALID;
+                }
+                seconds = hour * 3600 + minute * 60 + second;
+            }
+            return epochDay(year, month, day) * 86400 + seconds;
+        }
+
+        //the digits as a number, -1 when one of them is not a digit
+        private int digits(int p, int count) {
+            int value = 0;
+            for (int i = p; i < p + count; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+
+        private long visitorId(int field) {
+            int p = skipSpaces(fieldStart[field], fieldEnd[field]);
+            int stop = trimEnd(p, fieldEnd[field]);
+            if (stop > p && stop - p <= 18) {
+                long value = 0;
+                int i = p;
+                for (; i < stop; i++) {
+                    int digit = buffer.get(i) - '0';
+                    if (digit < 0 || digit > 9) {
+                        break;
+                    }
+                    value = value * 10 + digit;
+                }
+                if (i == stop) {
+                    return value;
+                }
+            }
+            long hash = 0xcbf29ce484222325L;
+            for (int i = fieldStart[field]; i < fieldEnd[field]; i++) {
+                hash = (hash ^ (buffer.get(i) & 0xff)) * 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        private int distance(int field) {
+            int start = fieldStart[field];
+            int stop = fieldEnd[field];
+            if (!schema.isNewFormat()) {
+                int band = rssiBand(start, stop);
+                if (rssiCodes[band] < 0) {
+                    String label = band < RSSI_LABELS.length ? RSSI_LABELS[band] : "";
+                    rssiCodes[band] = code(label.getBytes(StandardCharsets.UTF_8));
+                }
+                return rssiCodes[band];
+            }
+            for (int code = 0; code < labels.size(); code++) {
+                if (equals(labels.get(code), start, stop)) {
+                    return code;
+                }
+            }
+            byte[] label = new byte[stop - start];
+            buffer.get(start, label);
+            return code(label);
+        }
+
+        //codes of this chunk are the codes of its columns, the labels are added in the same order
+        private int code(byte[] label) {
+            for (int code = 0; code < labels.size(); code++) {
+                if (Arrays.equals(labels.get(code), label)) {
+                    return code;
+                }
+            }
+            int code = columns.distanceCode(new String(label, StandardCharsets.UTF_8).replace("\"\"", "\""));
+            if (code == labels.size()) {
+                labels.add(label);
+            }
+            return code;
+        }
+
+        //index into RSSI_LABELS, RSSI_LABELS.length when the value is missing or outside the bands
+        private int rssiBand(int start, int stop) {
+            int p = skipSpaces(start, stop);
+            stop = trimEnd(p, stop);
+            boolean negative = p < stop && buffer.get(p) == '-';
+            if (negative) {
+                p++;
+            }
+            double value = 0;
+            double scale = 0;
+            boolean any = false;
+            for (; p < stop; p++) {
+                byte b = buffer.get(p);
+                if (b == '.' && scale == 0) {
+                    scale = 1;
+                } else if (b >= '0' && b <= '9') {
+                    any = true;
+                    if (scale == 0) {
+                        value = value * 10 + (b - '0');
+                    } else {
+                        scale /= 10;
+                        value += (b - '0') * scale;
+                    }
+                } else {
+                    return RSSI_LABELS.length;
+                }
+            }
+            if (!any) {
+                return RSSI_LABELS.length;
+            }
+            double rssi = negative ? -value : value;
+            for (int i = 0; i < RSSI_LABELS.length; i++) {
+                if (rssi >= RSSI_BINS[i] && rssi < RSSI_BINS[i + 1]) {
+                    return i;
+                }
+            }
+            return RSSI_LABELS.length;
+        }
+
+        private boolean equals(byte[] label, int start, int stop) {
+            if (label.length != stop - start) {
+                return false;
+            }
+            for (int i = 0; i < label.length; i++) {
+                if (label[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isBlank(int start, int stop) {
+            return skipSpaces(start, stop) == stop;
+        }
+
+        private int skipSpaces(int p, int stop) {
+            while (p < stop && (buffer.get(p) == ' ' || buffer.get(p) == '\t')) {
+                p++;
+            }
+            return p;
+        }
+
+        private int trimEnd(int start, int stop) {
+            while (stop > start && (buffer.get(stop - 1) == ' ' || buffer.get(stop - 1) == '\t' || buffer.get(stop - 1) == '\r')) {
+                stop--;
+            }
+            return stop;
+        }
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    //days since 1970-01-01 of a proleptic gregorian date
+    private static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,136 @@
+package com.utipdam.csv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//the rows of a mobility file as primitive columns in file order. visitor ids are the numeric ids as they are and a 64-bit
+//FNV-1a hash of anything else, times are epoch seconds read as UTC, distances a code into getDistanceLabels()
+public class TraceColumns {
+    private final boolean newFormat;
+    private int size;
+    private int[] locations;
+    private long[] visitorIds;
+    private long[] startTimes;
+    private long[] endTimes;
+    private byte[] distances;
+    private final List<String> distanceLabels = new ArrayList<>();
+    private final Map<String, Integer> distanceCodes = new HashMap<>();
+    private long badRows;
+    private long blankLines;
+
+    TraceColumns(boolean newFormat, int capacity) {
+        this.newFormat = newFormat;
+        capacity = Math.max(capacity, 16);
+        locations = new int[capacity];
+        visitorIds = new long[capacity];
+        startTimes = new long[capacity];
+        endTimes = new long[capacity];
+        distances = new byte[capacity];
+    }
+
+    void add(int location, long visitorId, long startTime, long endTime, int distance) {
+        if (size == locations.length) {
+            int capacity = size + (size >> 1);
+            locations = Arrays.copyOf(locations, capacity);
+            visitorIds = Arrays.copyOf(visitorIds, capacity);
+            startTimes = Arrays.copyOf(startTimes, capacity);
+            endTimes = Arrays.copyOf(endTimes, capacity);
+            distances = Arrays.copyOf(distances, capacity);
+        }
+        locations[size] = location;
+        visitorIds[size] = visitorId;
+        startTimes[size] = startTime;
+        endTimes[size] = endTime;
+        distances[size] = (byte) distance;
+        size++;
+    }
+
+    //code of a distance label, -1 once there are 256 different labels
+    int distanceCode(String label) {
+        Integer code = distanceCodes.get(label);
+        if (code == null) {
+            if (distanceLabels.size() == 256) {
+                return -1;
+            }
+            code = distanceLabels.size();
+            distanceCodes.put(label, code);
+            distanceLabels.add(label);
+        }
+        return code;
+    }
+
+    void badRow() {
+        badRows++;
+    }
+
+    void blankLine() {
+        blankLines++;
+    }
+
+    //the chunks of one file in file order, distance codes mapped onto the labels of the result
+    static TraceColumns concat(boolean newFormat, List<TraceColumns> chunks) {
+        int size = chunks.stream().mapToInt(TraceColumns::size).sum();
+        TraceColumns all = new TraceColumns(newFormat, size);
+        for (TraceColumns chunk : chunks) {
+            int[] codes = new int[chunk.distanceLabels.size()];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = all.distanceCode(chunk.distanceLabels.get(i));
+            }
+            for (int i = 0; i < chunk.size; i++) {
+                int code = codes[chunk.distances[i] & 0xff];
+                if (code < 0) {
+                    all.badRows++;
+                } else {
+                    all.add(chunk.locations[i], chunk.visitorIds[i], chunk.startTimes[i], chunk.endTimes[i], code);
+                }
+            }
+            all.badRows += chunk.badRows;
+            all.blankLines += chunk.blankLines;
+        }
+        return all;
+    }
+
+    public boolean isNewFormat() {
+        return newFormat;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int location(int row) {
+        return locations[row];
+    }
+
+    public long visitorId(int row) {
+        return visitorIds[row];
+    }
+
+    public long startTime(int row) {
+        return startTimes[row];
+    }
+
+    public long endTime(int row) {
+        return endTimes[row];
+    }
+
+    public int distance(int row) {
+        return distances[row] & 0xff;
+    }
+
+    public List<String> getDistanceLabels() {
+        return distanceLabels;
+    }
+
+    //rows left out because a field could not be parsed or was missing
+    public long getBadRows() {
+        return badRows;
+    }
+
+    public long getBlankLines() {
+        return blankLines;
+    }
+}
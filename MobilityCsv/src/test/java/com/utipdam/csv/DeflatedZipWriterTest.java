@@ -0,0 +1,125 @@
+package com.utipdam.csv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeflatedZipWriterTest {
+    private static final long FIVE_GB = 5L << 30;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void entriesReadBackThroughZipInputStream() throws IOException {
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put("dataset-1-2024-05-01.csv", "dataset_id,location_id\n6502,3\n6502,1\n");
+        files.put("dataset-2-2024-05-02.csv", "dataset_id,location_id\n" + "6502,5\n".repeat(50_000));
+        files.put("dataset-3-2024-05-03.csv", "");
+
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        DeflatedZipWriter writer = new DeflatedZipWriter(zip);
+        boolean compressedFirst = true;
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            Path csv = directory.resolve(file.getKey());
+            Files.writeString(csv, file.getValue(), StandardCharsets.UTF_8);
+            //the csv itself and its gzip copy give the same entry
+            writer.add(compressedFirst ? CompressedCsv.write(csv) : csv);
+            compressedFirst = false;
+        }
+        writer.finish();
+
+        Map<String, String> read = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()), StandardCharsets.UTF_8)) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+                //the crc and size are checked by ZipInputStream at the end of the entry
+                read.put(entry.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(files, read);
+    }
+
+    @Test
+    void entriesOver4GbGetZip64Records() throws IOException {
+        Path large = fakeCompressedCsv("dataset-1-2024-05-01.csv", "dataset_id,location_id\n6502,3\n", FIVE_GB);
+        Path small = directory.resolve("dataset-2-2024-05-02.csv");
+        Files.writeString(small, "dataset_id,location_id\n6502,1\n", StandardCharsets.UTF_8);
+
+        Path zip = directory.resolve("datasets.zip");
+        try (OutputStream out = Files.newOutputStream(zip)) {
+            DeflatedZipWriter writer = new DeflatedZipWriter(out);
+            writer.add(large);
+            writer.add(small);
+            writer.finish();
+        }
+
+        //the local header carries the zip64 sizes
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip))) {
+            ZipEntry entry = in.getNextEntry();
+            assertNotNull(entry);
+            assertEquals("dataset-1-2024-05-01.csv", entry.getName());
+            assertEquals(FIVE_GB, entry.getSize());
+        }
+        //and so does the central directory, the entry after it is still found at its offset
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            ZipEntry entry = zipFile.getEntry("dataset-1-2024-05-01.csv");
+            assertEquals(FIVE_GB, entry.getSize());
+            assertEquals(CompressedCsv.read(large).getCompressedSize(), entry.getCompressedSize());
+
+            ZipEntry next = zipFile.getEntry("dataset-2-2024-05-02.csv");
+            assertEquals("dataset_id,location_id\n6502,1\n",
+                    new String(zipFile.getInputStream(next).readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    //a gzip copy whose header states size as the size of the csv, with the real deflated data of contents
+    private Path fakeCompressedCsv(String name, String contents, long size) throws IOException {
+        byte[] data = contents.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 0x1f).put((byte) 0x8b).put((byte) 8).put((byte) 4)
+                .putInt(0).put((byte) 0).put((byte) 0xff)
+                .putShort((short) 12).put((byte) 'L').put((byte) 'N').putShort((short) 8).putLong(size);
+        gzip.write(header.array());
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (DeflaterOutputStream deflated = new DeflaterOutputStream(gzip, deflater)) {
+            deflated.write(data);
+            deflated.finish();
+            ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt((int) crc.getValue()).putInt((int) size);
+            gzip.write(trailer.array());
+        } finally {
+            deflater.end();
+        }
+
+        Path file = CompressedCsv.pathOf(directory.resolve(name));
+        Files.write(file, gzip.toByteArray());
+        CompressedCsv compressed = CompressedCsv.read(file);
+        assertEquals(size, compressed.getSize());
+        return file;
+    }
+}
@@ -0,0 +1,160 @@
+package com.utipdam.engine;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+//in-process equivalent of anonymization-v*.py: drops every unique id whose trace is shared by k or fewer ids
+public class AnonymizationEngine {
+    private final ForkJoinPool pool;
+
+    public AnonymizationEngine() {
+        this(null);
+    }
+
+    //rows are hash-partitioned by unique id across the pool, the output is the same as the serial run
+    public AnonymizationEngine(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public AnonymizationMetrics anonymize(Reader input, int k, Writer output, boolean includeMetrics) throws IOException, InvalidInputException {
+        TraceTable table = TraceTable.read(input, true, pool);
+
+        boolean[] suppressed = new boolean[table.getVisitorCount()];
+        long targetTotal = 0;
+        for (int v = 0; v < suppressed.length; v++) {
+            if (table.count(v) <= k) {
+                suppressed[v] = true;
+                targetTotal++;
+            }
+        }
+
+        long anonymizedTotal = 0;
+        for (TraceRow row : table.getRows()) {
+            if (!suppressed[row.getVisitor()]) {
+                anonymizedTotal++;
+            }
+        }
+
+        AnonymizationMetrics metrics = new AnonymizationMetrics(anonymizedTotal, table.getRows().size(),
+                targetTotal, table.getVisitorCount());
+
+        writeHeader(output, metrics, includeMetrics);
+        for (TraceRow row : table.getRows()) {
+            if (!suppressed[row.getVisitor()]) {
+                output.write(row.getLine());
+                output.write('\n');
+            }
+        }
+        output.flush();
+        return metrics;
+    }
+
+    //same output as anonymize() but rows are spilled to disk in partitions, for files larger than the heap
+    public AnonymizationMetrics anonymize(Reader input, int k, Writer output, boolean includeMetrics,
+                                          Path spillDirectory, int partitions) throws IOException, InvalidInputException {
+        try (SpilledTraceTable table = SpilledTraceTable.read(input, true, spillDirectory, partitions)) {
+            BitSet[] suppressed = new BitSet[partitions];
+            for (int p = 0; p < partitions; p++) {
+                suppressed[p] = new BitSet(table.getVisitorCounts()[p]);
+            }
+            long[] totals = new long[2];
+            table.forEachTracePartition((counts, entries) -> {
+                for (SpilledTraceTable.TraceEntry entry : entries) {
+                    if (counts.get(entry.getTrace()) <= k) {
+                        suppressed[entry.getPartition()].set(entry.getVisitor());
+                        totals[0]++;
+                        totals[1] += entry.getRows();
+                    }
+                }
+            });
+
+            AnonymizationMetrics metrics = new AnonymizationMetrics(table.getRowCount() - totals[1], table.getRowCount(),
+                    totals[0], table.getVisitorTotal());
+
+            writeHeader(output, metrics, includeMetrics);
+            table.forEachRow((partition, visitor, line) -> {
+                if (!suppressed[partition].get(visitor)) {
+                    output.write(line);
+                    output.write('\n');
+                }
+            });
+            output.flush();
+            return metrics;
+        }
+    }
+
+    //metrics of anonymize() for every k in kMin..kMax from one parse of the input
+    public SortedMap<Integer, AnonymizationMetrics> sweep(Reader input, int kMin, int kMax) throws IOException, InvalidInputException {
+        TraceTable table = TraceTable.read(input, false, pool);
+        int[] rows = new int[table.getVisitorCount()];
+        for (TraceRow row : table.getRows()) {
+            rows[row.getVisitor()]++;
+        }
+        SuppressionHistogram histogram = new SuppressionHistogram(kMax);
+        for (int v = 0; v < rows.length; v++) {
+            histogram.add(table.count(v), rows[v]);
+        }
+        return histogram.sweep(kMin, table.getRows().size(), table.getVisitorCount());
+    }
+
+    //same result as sweep() with the rows spilled to disk in partitions
+    public SortedMap<Integer, AnonymizationMetrics> sweep(Reader input, int kMin, int kMax,
+                                                         Path spillDirectory, int partitions) throws IOException, InvalidInputException {
+        try (SpilledTraceTable table = SpilledTraceTable.read(input, false, spillDirectory, partitions)) {
+            SuppressionHistogram histogram = new SuppressionHistogram(kMax);
+            table.forEachTracePartition((counts, entries) -> {
+                for (SpilledTraceTable.TraceEntry entry : entries) {
+                    histogram.add(counts.get(entry.getTrace()), entry.getRows());
+                }
+            });
+            return histogram.sweep(kMin, table.getRowCount(), table.getVisitorTotal());
+        }
+    }
+
+    private static void writeHeader(Writer output, AnonymizationMetrics metrics, boolean includeMetrics) throws IOException {
+        if (includeMetrics) {
+            output.write(metrics.toMetricsLine());
+            output.write('\n');
+        }
+        output.write(CsvLayout.outputHeader());
+        output.write('\n');
+    }
+
+    //unique ids and rows by the number of ids sharing their trace, a trace shared by c ids is suppressed for every k >= c
+    private static class SuppressionHistogram {
+        private final long[] visitors;
+        private final long[] rows;
+
+        SuppressionHistogram(int kMax) {
+            visitors = new long[kMax + 1];
+            rows = new long[kMax + 1];
+        }
+
+        void add(int count, long visitorRows) {
+            if (count < visitors.length) {
+                visitors[count]++;
+                rows[count] += visitorRows;
+            }
+        }
+
+        SortedMap<Integer, AnonymizationMetrics> sweep(int kMin, long originalTotal, long traceTotal) {
+            SortedMap<Integer, AnonymizationMetrics> result = new TreeMap<>();
+            long targetTotal = 0;
+            long deletedRows = 0;
+            for (int k = 0; k < visitors.length; k++) {
+                targetTotal += visitors[k];
+                deletedRows += rows[k];
+                if (k >= kMin) {
+                    result.put(k, new AnonymizationMetrics(originalTotal - deletedRows, originalTotal, targetTotal, traceTotal));
+                }
+            }
+            return result;
+        }
+    }
+}
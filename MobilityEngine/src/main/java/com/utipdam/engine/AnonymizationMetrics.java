@@ -0,0 +1,55 @@
+package com.utipdam.engine;
+
+import lombok.Getter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Getter
+public class AnonymizationMetrics {
+    private final long anonymizedTotal;
+    private final long originalTotal;
+    private final long targetTotal;
+    private final long traceTotal;
+
+    public AnonymizationMetrics(long anonymizedTotal, long originalTotal, long targetTotal, long traceTotal) {
+        this.anonymizedTotal = anonymizedTotal;
+        this.originalTotal = originalTotal;
+        this.targetTotal = targetTotal;
+        this.traceTotal = traceTotal;
+    }
+
+    public double getInformationDeleted() {
+        return round(targetTotal * 100.0 / traceTotal);
+    }
+
+    public double getRecordsDeleted() {
+        return round(100 - (anonymizedTotal * 100.0 / originalTotal));
+    }
+
+    public long getRecordsDeletedCount() {
+        return originalTotal - anonymizedTotal;
+    }
+
+    //same text as performance() in anonymization-v*.py so getMetrics() can parse both engines
+    public String toMetricsLine() {
+        return "{'data': [{'Percentage of information deleted': " + getInformationDeleted() +
+                ", 'Percentage of records deleted': " + getRecordsDeleted() +
+                ", 'No. of records deleted': " + getRecordsDeletedCount() +
+                ", 'No. of information deleted': " + targetTotal + "}]}";
+    }
+
+    //the keys of the metrics line
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("Percentage of information deleted", getInformationDeleted());
+        map.put("Percentage of records deleted", getRecordsDeleted());
+        map.put("No. of records deleted", getRecordsDeletedCount());
+        map.put("No. of information deleted", targetTotal);
+        return map;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,135 @@
+package com.utipdam.engine;
+
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.Arrays;
+import java.util.List;
+
+//column mapping shared by the anonymization and audit engines, same rules as preprocess_data() in the python scripts
+@Getter
+public class CsvLayout {
+    public static final String[] OUTPUT_HEADER = {"dataset_id", "location_id", "anonymized_unique_id", "start_time", "end_time", "distance"};
+
+    private static final double[] RSSI_BINS = {-100, -90, -80, -70, -50, -1};
+    private static final String[] RSSI_LABELS = {"80m_to_100m", "60m_to_80m", "40m_to_60m", "20m_to_40m", "5m_to_20m"};
+
+    private static final DateTimeFormatter DATE_TIME = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd")
+            .optionalStart()
+            .appendLiteral(' ')
+            .appendPattern("HH:mm:ss")
+            .optionalStart()
+            .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+            .optionalEnd()
+            .optionalEnd()
+            .parseDefaulting(ChronoField.HOUR_OF_DAY, 0)
+            .parseDefaulting(ChronoField.MINUTE_OF_HOUR, 0)
+            .parseDefaulting(ChronoField.SECOND_OF_MINUTE, 0)
+            .toFormatter();
+
+    private final boolean newFormat;
+    private final int locationIndex;
+    private final int uniqueIdIndex;
+    private final int startIndex;
+    private final int endIndex;
+    private final int[] outputIndexes;
+    private final int rssiIndex;
+
+    private CsvLayout(List<String> header) throws InvalidInputException {
+        locationIndex = indexOf(header, "region_id", "location_id");
+        startIndex = indexOf(header, "first_time_seen", "start_time");
+        endIndex = indexOf(header, "last_time_seen", "end_time");
+        uniqueIdIndex = indexOf(header, "visitor_id", "anonymized_unique_id");
+
+        newFormat = Arrays.stream(OUTPUT_HEADER).anyMatch(header::contains);
+        if (newFormat) {
+            outputIndexes = Arrays.stream(OUTPUT_HEADER).mapToInt(header::indexOf).toArray();
+            rssiIndex = -1;
+        } else {
+            outputIndexes = new int[]{header.indexOf("site_id"), header.indexOf("region_id"), header.indexOf("visitor_id"),
+                    header.indexOf("first_time_seen"), header.indexOf("last_time_seen"), -1};
+            rssiIndex = header.indexOf("rssi_avg");
+        }
+    }
+
+    public static CsvLayout of(String[] header) throws InvalidInputException {
+        if (header == null || header.length == 0) {
+            throw new InvalidInputException("File header is required");
+        }
+        String[] columns = new String[header.length];
+        for (int i = 0; i < header.length; i++) {
+            columns[i] = header[i].replace("\uFEFF", "").trim();
+        }
+        return new CsvLayout(Arrays.asList(columns));
+    }
+
+    public String outputLine(String[] record) {
+        StringBuilder sb = new StringBuilder(96);
+        for (int i = 0; i < outputIndexes.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            int index = outputIndexes[i];
+            if (index >= 0 && index < record.length) {
+                appendField(sb, record[index]);
+            } else if (i == outputIndexes.length - 1 && !newFormat) {
+                sb.append(distance(record));
+            }
+        }
+        return sb.toString();
+    }
+
+    public static long parseTime(String value) throws InvalidInputException {
+        try {
+            LocalDateTime dateTime = LocalDateTime.parse(value.trim().replace('T', ' '), DATE_TIME);
+            return dateTime.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + dateTime.getNano();
+        } catch (DateTimeParseException e) {
+            throw new InvalidInputException("datetime must be yyyy-MM-dd HH:mm:ss format. You provided " + value);
+        }
+    }
+
+    public static String outputHeader() {
+        return String.join(",", OUTPUT_HEADER);
+    }
+
+    private String distance(String[] record) {
+        if (rssiIndex < 0 || rssiIndex >= record.length) {
+            return "";
+        }
+        try {
+            double rssi = Double.parseDouble(record[rssiIndex]);
+            for (int i = 0; i < RSSI_LABELS.length; i++) {
+                if (rssi >= RSSI_BINS[i] && rssi < RSSI_BINS[i + 1]) {
+                    return RSSI_LABELS[i];
+                }
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        return "";
+    }
+
+    private static void appendField(StringBuilder sb, String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            sb.append(value);
+        } else {
+            sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+    }
+
+    private static int indexOf(List<String> header, String oldName, String newName) throws InvalidInputException {
+        int index = header.indexOf(oldName);
+        if (index < 0) {
+            index = header.indexOf(newName);
+        }
+        if (index < 0) {
+            throw new InvalidInputException("error in columns. " + newName + " is required");
+        }
+        return index;
+    }
+}
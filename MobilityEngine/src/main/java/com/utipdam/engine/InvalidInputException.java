@@ -0,0 +1,8 @@
+package com.utipdam.engine;
+
+//input the engine can't process: a missing column, a row, time or location id that doesn't parse, too few traces
+public class InvalidInputException extends Exception {
+    public InvalidInputException(String message) {
+        super(message);
+    }
+}
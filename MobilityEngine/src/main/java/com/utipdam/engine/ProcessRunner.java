@@ -0,0 +1,179 @@
+package com.utipdam.engine;
+
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+
+//runs external commands with their output drained concurrently, a deadline and the whole process tree killed on timeout
+public class ProcessRunner {
+    private static final Logger logger = LoggerFactory.getLogger(ProcessRunner.class);
+
+    //how often cpu time is sampled while the process runs, it is no longer readable once the process is reaped
+    private static final long SAMPLE_MS = 100;
+
+    private static final ExecutorService DRAINS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "process-drain");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    //output set: stdout and stderr are written to it, otherwise both are captured
+    public static Result run(List<String> command, Duration timeout, File output) throws IOException, InterruptedException {
+        return run(command, timeout, output, null);
+    }
+
+    //handle, when set, kills the process tree when it is cancelled, the run then throws IOException
+    public static Result run(List<String> command, Duration timeout, File output, Handle handle) throws IOException, InterruptedException {
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        if (output != null) {
+            processBuilder.redirectErrorStream(true);
+            processBuilder.redirectOutput(output);
+        }
+        long start = System.nanoTime();
+        Process process = processBuilder.start();
+        if (handle != null) {
+            handle.attach(process);
+        }
+        Future<String> stdout = output == null ? drain(process.getInputStream()) : CompletableFuture.completedFuture("");
+        Future<String> stderr = output == null ? drain(process.getErrorStream()) : CompletableFuture.completedFuture("");
+
+        long deadline = start + timeout.toNanos();
+        long cpuNanos = 0;
+        boolean timedOut = false;
+        try {
+            while (!process.waitFor(SAMPLE_MS, TimeUnit.MILLISECONDS)) {
+                cpuNanos = Math.max(cpuNanos, cpuNanos(process.toHandle()));
+                if (System.nanoTime() - deadline > 0) {
+                    timedOut = true;
+                    killTree(process);
+                    process.waitFor();
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            killTree(process);
+            throw e;
+        } finally {
+            if (handle != null) {
+                handle.detach();
+            }
+        }
+        if (handle != null && handle.isCancelled()) {
+            throw new IOException("Cancelled");
+        }
+
+        Result result = new Result(timedOut ? -1 : process.exitValue(), get(stdout), get(stderr), timedOut,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), TimeUnit.NANOSECONDS.toMillis(cpuNanos));
+        logger.info(String.join(" ", command.subList(0, Math.min(2, command.size()))) + " exit " + result.exitCode +
+                (timedOut ? " timed out" : "") + ", wall " + result.wallMillis + " ms, cpu " + result.cpuMillis + " ms");
+        return result;
+    }
+
+    //waits for task, which reads from process, and kills the process tree when it does not finish in time or the caller is interrupted
+    public static <T> T await(Process process, Callable<T> task, Duration timeout) throws IOException, InterruptedException {
+        Future<T> future = DRAINS.submit(task);
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            killTree(process);
+            throw new ProcessTimeoutException("Timed out after " + timeout.toSeconds() + " s");
+        } catch (InterruptedException e) {
+            killTree(process);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            future.cancel(true);
+        }
+    }
+
+    public static void killTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    //cpu time of the process and its children, 0 when the platform does not report it
+    public static long cpuNanos(ProcessHandle process) {
+        long nanos = process.info().totalCpuDuration().map(Duration::toNanos).orElse(0L);
+        for (ProcessHandle child : process.descendants().toList()) {
+            nanos += child.info().totalCpuDuration().map(Duration::toNanos).orElse(0L);
+        }
+        return nanos;
+    }
+
+    private static Future<String> drain(InputStream in) {
+        return DRAINS.submit(() -> {
+            try (in) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        });
+    }
+
+    private static String get(Future<String> output) throws IOException, InterruptedException {
+        try {
+            return output.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    //lets another thread kill the process a run waits for, e.g. when the client of the request has gone away. a process
+    //attached after the handle was cancelled is killed right away
+    public static class Handle {
+        private Process process;
+        private boolean cancelled;
+
+        public synchronized void cancel() {
+            cancelled = true;
+            if (process != null) {
+                killTree(process);
+            }
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        public synchronized void attach(Process process) {
+            this.process = process;
+            if (cancelled) {
+                killTree(process);
+            }
+        }
+
+        //the process outlives the run, like a python worker, and must not be killed by a later cancel
+        public synchronized void detach() {
+            process = null;
+        }
+    }
+
+    @Getter
+    public static class Result {
+        private final int exitCode;
+        private final String stdout;
+        private final String stderr;
+        private final boolean timedOut;
+        private final long wallMillis;
+        private final long cpuMillis;
+
+        Result(int exitCode, String stdout, String stderr, boolean timedOut, long wallMillis, long cpuMillis) {
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.timedOut = timedOut;
+            this.wallMillis = wallMillis;
+            this.cpuMillis = cpuMillis;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.utipdam.engine;
+
+import java.io.IOException;
+
+//a process killed by ProcessRunner because it missed its deadline
+public class ProcessTimeoutException extends IOException {
+    public ProcessTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,100 @@
+package com.utipdam.engine;
+
+import java.util.*;
+
+//Aho-Corasick automaton over location ids: finds every pattern occurring as consecutive locations of a sequence in one
+//pass over the sequence, however many patterns there are
+public class SequenceMatcher {
+    private final List<Map<Integer, Integer>> next = new ArrayList<>();
+    private final List<Integer> fail = new ArrayList<>();
+    //patterns ending at a state, including those ending at the states its failure links lead to
+    private final int[][] output;
+    private final int patternCount;
+
+    public SequenceMatcher(int[][] patterns) {
+        this.patternCount = patterns.length;
+        List<List<Integer>> ends = new ArrayList<>();
+        addState(ends);
+        for (int p = 0; p < patterns.length; p++) {
+            int state = 0;
+            for (int location : patterns[p]) {
+                Integer to = next.get(state).get(location);
+                if (to == null) {
+                    to = addState(ends);
+                    next.get(state).put(location, to);
+                }
+                state = to;
+            }
+            //an empty pattern never matches
+            if (state != 0) {
+                ends.get(state).add(p);
+            }
+        }
+
+        //breadth first, so the failure state of a state is complete before the state itself
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int to : next.get(0).values()) {
+            fail.set(to, 0);
+            queue.add(to);
+        }
+        output = new int[next.size()][];
+        output[0] = new int[0];
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            List<Integer> own = ends.get(state);
+            int[] inherited = output[fail.get(state)];
+            int[] all = Arrays.copyOf(inherited, inherited.length + own.size());
+            for (int i = 0; i < own.size(); i++) {
+                all[inherited.length + i] = own.get(i);
+            }
+            output[state] = all;
+            for (Map.Entry<Integer, Integer> edge : next.get(state).entrySet()) {
+                fail.set(edge.getValue(), step(fail.get(state), edge.getKey()));
+                queue.add(edge.getValue());
+            }
+        }
+    }
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    //calls onMatch once for every pattern found in the sequence, however often it occurs there. marks holds one entry per
+    //pattern and remembers which patterns were already reported for mark, so it is not cleared between sequences
+    public void match(int[] sequence, int mark, int[] marks, PatternConsumer onMatch) {
+        int state = 0;
+        for (int location : sequence) {
+            state = step(state, location);
+            for (int p : output[state]) {
+                if (marks[p] != mark) {
+                    marks[p] = mark;
+                    onMatch.accept(p);
+                }
+            }
+        }
+    }
+
+    private int step(int state, int location) {
+        while (true) {
+            Integer to = next.get(state).get(location);
+            if (to != null) {
+                return to;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail.get(state);
+        }
+    }
+
+    private int addState(List<List<Integer>> ends) {
+        next.add(new HashMap<>());
+        fail.add(0);
+        ends.add(new ArrayList<>());
+        return next.size() - 1;
+    }
+
+    public interface PatternConsumer {
+        void accept(int pattern);
+    }
+}
@@ -0,0 +1,340 @@
+package com.utipdam.engine;
+
+import lombok.Getter;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+//out-of-core TraceTable: rows are hash-partitioned by unique id into spill files so only one partition is in memory at a time
+@Getter
+public class SpilledTraceTable implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 15;
+
+    private final Path directory;
+    private final int partitions;
+    private final boolean keepLines;
+    private final int[] visitorCounts;
+    private long rowCount;
+    private long visitorTotal;
+
+    private SpilledTraceTable(Path directory, int partitions, boolean keepLines) {
+        this.directory = directory;
+        this.partitions = partitions;
+        this.keepLines = keepLines;
+        this.visitorCounts = new int[partitions];
+    }
+
+    public static SpilledTraceTable read(Reader reader, boolean keepLines, Path spillDirectory, int partitions)
+            throws IOException, InvalidInputException {
+        Files.createDirectories(spillDirectory);
+        SpilledTraceTable table = new SpilledTraceTable(Files.createTempDirectory(spillDirectory, "traces-"), partitions, keepLines);
+        try {
+            table.partitionRows(reader);
+            DataOutputStream[] traceOutputs = new DataOutputStream[partitions];
+            try {
+                for (int t = 0; t < partitions; t++) {
+                    traceOutputs[t] = output(table.file("traces", t));
+                }
+                for (int p = 0; p < partitions; p++) {
+                    table.buildTraces(p, traceOutputs);
+                }
+            } finally {
+                closeAll(traceOutputs);
+            }
+            return table;
+        } catch (IOException | InvalidInputException | RuntimeException e) {
+            table.close();
+            throw e;
+        }
+    }
+
+    //hands the traces to the handler one trace-hash partition at a time, every equal trace is in the same partition
+    public void forEachTracePartition(TracePartitionHandler handler) throws IOException {
+        for (int t = 0; t < partitions; t++) {
+            Path file = file("traces", t);
+            List<TraceEntry> entries = new ArrayList<>();
+            Map<TraceSignature, Integer> counts = new HashMap<>();
+            try (DataInputStream in = input(file)) {
+                while (hasMore(in)) {
+                    int partition = in.readInt();
+                    int visitor = in.readInt();
+                    int rows = in.readInt();
+                    int[] locations = new int[in.readInt()];
+                    for (int i = 0; i < locations.length; i++) {
+                        locations[i] = in.readInt();
+                    }
+                    TraceSignature trace = new TraceSignature(locations);
+                    counts.merge(trace, 1, Integer::sum);
+                    entries.add(new TraceEntry(partition, visitor, rows, trace));
+                }
+            }
+            handler.accept(counts, entries);
+            Files.delete(file);
+        }
+    }
+
+    //k-way merge of the sorted runs, rows come out in the same order as TraceTable.getRows()
+    public void forEachRow(RowHandler handler) throws IOException {
+        PriorityQueue<RunCursor> queue = new PriorityQueue<>();
+        try {
+            for (int p = 0; p < partitions; p++) {
+                RunCursor cursor = new RunCursor(p, input(file("run", p)), keepLines);
+                if (cursor.next()) {
+                    queue.add(cursor);
+                } else {
+                    cursor.close();
+                }
+            }
+            while (!queue.isEmpty()) {
+                RunCursor cursor = queue.poll();
+                handler.accept(cursor.partition, cursor.visitor, cursor.line);
+                if (cursor.next()) {
+                    queue.add(cursor);
+                } else {
+                    cursor.close();
+                }
+            }
+        } finally {
+            for (RunCursor cursor : queue) {
+                cursor.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    private void partitionRows(Reader reader) throws IOException, InvalidInputException {
+        DataOutputStream[] outputs = new DataOutputStream[partitions];
+        try {
+            for (int p = 0; p < partitions; p++) {
+                outputs[p] = output(file("rows", p));
+            }
+            TraceTable.scan(reader, keepLines, (uniqueId, locationId, startTime, endTime, line) -> {
+                DataOutputStream out = outputs[Math.floorMod(uniqueId.hashCode(), partitions)];
+                out.writeLong(rowCount++);
+                out.writeLong(startTime);
+                out.writeLong(endTime);
+                out.writeInt(locationId);
+                writeString(out, uniqueId);
+                if (keepLines) {
+                    writeString(out, line);
+                }
+            });
+        } finally {
+            closeAll(outputs);
+        }
+    }
+
+    //sorts one id partition like TraceTable, writes it as a sorted run and spills its traces by trace hash
+    private void buildTraces(int p, DataOutputStream[] traceOutputs) throws IOException {
+        Path rowsFile = file("rows", p);
+        List<SpillRow> rows = new ArrayList<>();
+        Map<String, Integer> visitors = new HashMap<>();
+        try (DataInputStream in = input(rowsFile)) {
+            while (hasMore(in)) {
+                long sequence = in.readLong();
+                long startTime = in.readLong();
+                long endTime = in.readLong();
+                int locationId = in.readInt();
+                String uniqueId = readString(in);
+                String line = keepLines ? readString(in) : null;
+                int visitor = visitors.computeIfAbsent(uniqueId, id -> visitors.size());
+                rows.add(new SpillRow(sequence, startTime, endTime, locationId, visitor, line));
+            }
+        }
+        Files.delete(rowsFile);
+        int visitorCount = visitors.size();
+        visitors.clear();
+
+        rows.sort(null);
+        visitorCounts[p] = visitorCount;
+        visitorTotal += visitorCount;
+
+        int[] sizes = new int[visitorCount];
+        for (SpillRow row : rows) {
+            sizes[row.visitor]++;
+        }
+        int[][] sequences = new int[visitorCount][];
+        for (int v = 0; v < visitorCount; v++) {
+            sequences[v] = new int[sizes[v]];
+        }
+        int[] position = new int[visitorCount];
+
+        try (DataOutputStream run = output(file("run", p))) {
+            for (SpillRow row : rows) {
+                sequences[row.visitor][position[row.visitor]++] = row.locationId;
+                run.writeLong(row.startTime);
+                run.writeLong(row.endTime);
+                run.writeInt(row.locationId);
+                run.writeLong(row.sequence);
+                run.writeInt(row.visitor);
+                if (keepLines) {
+                    writeString(run, row.line);
+                }
+            }
+        }
+        rows.clear();
+
+        for (int v = 0; v < visitorCount; v++) {
+            int[] locations = sequences[v];
+            DataOutputStream out = traceOutputs[Math.floorMod(Arrays.hashCode(locations), partitions)];
+            out.writeInt(p);
+            out.writeInt(v);
+            out.writeInt(sizes[v]);
+            out.writeInt(locations.length);
+            for (int location : locations) {
+                out.writeInt(location);
+            }
+        }
+    }
+
+    private Path file(String name, int partition) {
+        return directory.resolve(name + "-" + partition + ".bin");
+    }
+
+    private static DataOutputStream output(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+    }
+
+    private static DataInputStream input(Path file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+    }
+
+    private static void closeAll(DataOutputStream[] outputs) throws IOException {
+        for (DataOutputStream out : outputs) {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    private static boolean hasMore(DataInputStream in) throws IOException {
+        in.mark(1);
+        if (in.read() < 0) {
+            return false;
+        }
+        in.reset();
+        return true;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Getter
+    public static class TraceEntry {
+        private final int partition;
+        private final int visitor;
+        private final int rows;
+        private final TraceSignature trace;
+
+        TraceEntry(int partition, int visitor, int rows, TraceSignature trace) {
+            this.partition = partition;
+            this.visitor = visitor;
+            this.rows = rows;
+            this.trace = trace;
+        }
+    }
+
+    public interface TracePartitionHandler {
+        void accept(Map<TraceSignature, Integer> counts, List<TraceEntry> entries) throws IOException;
+    }
+
+    public interface RowHandler {
+        void accept(int partition, int visitor, String line) throws IOException;
+    }
+
+    private static class SpillRow implements Comparable<SpillRow> {
+        private final long sequence;
+        private final long startTime;
+        private final long endTime;
+        private final int locationId;
+        private final int visitor;
+        private final String line;
+
+        SpillRow(long sequence, long startTime, long endTime, int locationId, int visitor, String line) {
+            this.sequence = sequence;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.locationId = locationId;
+            this.visitor = visitor;
+            this.line = line;
+        }
+
+        //start_time, end_time, location_id, then file order like the stable sort of TraceTable
+        @Override
+        public int compareTo(SpillRow o) {
+            int c = Long.compare(startTime, o.startTime);
+            if (c == 0) {
+                c = Long.compare(endTime, o.endTime);
+            }
+            if (c == 0) {
+                c = Integer.compare(locationId, o.locationId);
+            }
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    private static class RunCursor implements Comparable<RunCursor>, Closeable {
+        private final int partition;
+        private final DataInputStream in;
+        private final boolean keepLines;
+        private long startTime;
+        private long endTime;
+        private int locationId;
+        private long sequence;
+        private int visitor;
+        private String line;
+
+        RunCursor(int partition, DataInputStream in, boolean keepLines) {
+            this.partition = partition;
+            this.in = in;
+            this.keepLines = keepLines;
+        }
+
+        boolean next() throws IOException {
+            if (!hasMore(in)) {
+                return false;
+            }
+            startTime = in.readLong();
+            endTime = in.readLong();
+            locationId = in.readInt();
+            sequence = in.readLong();
+            visitor = in.readInt();
+            line = keepLines ? readString(in) : null;
+            return true;
+        }
+
+        @Override
+        public int compareTo(RunCursor o) {
+            int c = Long.compare(startTime, o.startTime);
+            if (c == 0) {
+                c = Long.compare(endTime, o.endTime);
+            }
+            if (c == 0) {
+                c = Integer.compare(locationId, o.locationId);
+            }
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
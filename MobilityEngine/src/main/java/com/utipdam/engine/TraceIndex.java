@@ -0,0 +1,190 @@
+package com.utipdam.engine;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+//location sequences of the visitors of one dataset file, built once and stored next to it so visitorDetection does not
+//parse the csv again: every visitor's locations in time order with repeats collapsed, identical sequences kept once with
+//their number of visitors, plus the visitors per location and the places of every pair of consecutive locations
+public class TraceIndex {
+    private static final int MAGIC = 0x54524958;
+    private static final int VERSION = 1;
+
+    private final int[][] sequences;
+    private final int[] visitors;
+    private final Map<Integer, Integer> locationVisitors = new HashMap<>();
+    //pair of consecutive locations -> sequence index and position of its first location, flattened
+    private final Map<Long, int[]> pairs = new HashMap<>();
+
+    private TraceIndex(int[][] sequences, int[] visitors) {
+        this.sequences = sequences;
+        this.visitors = visitors;
+
+        //sized in a first pass so the postings are plain int arrays, ordered by sequence and position
+        Map<Long, int[]> filled = new HashMap<>();
+        for (int s = 0; s < sequences.length; s++) {
+            int[] sequence = sequences[s];
+            Set<Integer> seen = new HashSet<>();
+            for (int i = 0; i < sequence.length; i++) {
+                if (seen.add(sequence[i])) {
+                    locationVisitors.merge(sequence[i], visitors[s], Integer::sum);
+                }
+                if (i + 1 < sequence.length) {
+                    filled.computeIfAbsent(pair(sequence[i], sequence[i + 1]), p -> new int[1])[0] += 2;
+                }
+            }
+        }
+        filled.forEach((p, size) -> {
+            pairs.put(p, new int[size[0]]);
+            size[0] = 0;
+        });
+        for (int s = 0; s < sequences.length; s++) {
+            int[] sequence = sequences[s];
+            for (int i = 0; i + 1 < sequence.length; i++) {
+                long p = pair(sequence[i], sequence[i + 1]);
+                int[] postings = pairs.get(p);
+                int[] next = filled.get(p);
+                postings[next[0]++] = s;
+                postings[next[0]++] = i;
+            }
+        }
+    }
+
+    public static Path pathOf(Path directory, String datasetId) {
+        return directory.resolve("traces-" + datasetId + ".idx");
+    }
+
+    //same rows, order and filters as the csv scan visitorDetection used to do on every request
+    public static TraceIndex build(TraceStore store) {
+        Map<List<Integer>, Integer> counts = new HashMap<>();
+        for (int v = 0; v < store.getVisitorCount(); v++) {
+            List<Integer> sequence = new ArrayList<>();
+            for (int location : store.locations(v)) {
+                //rows without a region are not part of any sequence in the old format
+                if ((store.isNewFormat() || location > 0)
+                        && (sequence.isEmpty() || sequence.get(sequence.size() - 1) != location)) {
+                    sequence.add(location);
+                }
+            }
+            if (!sequence.isEmpty()) {
+                counts.merge(sequence, 1, Integer::sum);
+            }
+        }
+
+        int[][] sequences = new int[counts.size()][];
+        int[] visitors = new int[counts.size()];
+        int s = 0;
+        for (Map.Entry<List<Integer>, Integer> entry : counts.entrySet()) {
+            sequences[s] = entry.getKey().stream().mapToInt(Integer::intValue).toArray();
+            visitors[s++] = entry.getValue();
+        }
+        return new TraceIndex(sequences, visitors);
+    }
+
+    public static TraceIndex read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a trace index: " + file);
+            }
+            int n = in.readInt();
+            int[][] sequences = new int[n][];
+            int[] visitors = new int[n];
+            for (int s = 0; s < n; s++) {
+                visitors[s] = in.readInt();
+                sequences[s] = new int[in.readInt()];
+                for (int i = 0; i < sequences[s].length; i++) {
+                    sequences[s][i] = in.readInt();
+                }
+            }
+            return new TraceIndex(sequences, visitors);
+        }
+    }
+
+    //written to a temporary file first so a reader never sees half an index
+    public void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sequences.length);
+            for (int s = 0; s < sequences.length; s++) {
+                out.writeInt(visitors[s]);
+                out.writeInt(sequences[s].length);
+                for (int location : sequences[s]) {
+                    out.writeInt(location);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //visitors whose collapsed sequence contains locationIds as consecutive locations, only the rarest pair of the query is scanned
+    public int count(int[] locationIds) {
+        if (locationIds.length == 0) {
+            return 0;
+        }
+        if (locationIds.length == 1) {
+            return locationVisitors.getOrDefault(locationIds[0], 0);
+        }
+        int[] rarest = null;
+        int offset = 0;
+        for (int i = 0; i + 1 < locationIds.length; i++) {
+            int[] postings = pairs.get(pair(locationIds[i], locationIds[i + 1]));
+            //also covers a repeated location, which no collapsed sequence contains
+            if (postings == null) {
+                return 0;
+            }
+            if (rarest == null || postings.length < rarest.length) {
+                rarest = postings;
+                offset = i;
+            }
+        }
+
+        int count = 0;
+        int matched = -1;
+        for (int p = 0; p < rarest.length; p += 2) {
+            int s = rarest[p];
+            if (s != matched && matches(sequences[s], rarest[p + 1] - offset, locationIds)) {
+                count += visitors[s];
+                matched = s;
+            }
+        }
+        return count;
+    }
+
+    //count for every pattern, all patterns matched in one pass over the distinct sequences
+    public int[] countAll(int[][] patterns) {
+        int[] counts = new int[patterns.length];
+        SequenceMatcher matcher = new SequenceMatcher(patterns);
+        int[] marks = new int[patterns.length];
+        Arrays.fill(marks, -1);
+        for (int s = 0; s < sequences.length; s++) {
+            int visitorCount = visitors[s];
+            matcher.match(sequences[s], s, marks, p -> counts[p] += visitorCount);
+        }
+        return counts;
+    }
+
+    public int getSequenceCount() {
+        return sequences.length;
+    }
+
+    private static boolean matches(int[] sequence, int start, int[] locationIds) {
+        if (start < 0 || start + locationIds.length > sequence.length) {
+            return false;
+        }
+        for (int i = 0; i < locationIds.length; i++) {
+            if (sequence[start + i] != locationIds[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long pair(int first, int second) {
+        return ((long) first << 32) | (second & 0xffffffffL);
+    }
+}
@@ -0,0 +1,20 @@
+package com.utipdam.engine;
+
+import lombok.Getter;
+
+@Getter
+public class TraceRow {
+    private final int visitor;
+    private final int locationId;
+    private final long startTime;
+    private final long endTime;
+    private final String line;
+
+    public TraceRow(int visitor, int locationId, long startTime, long endTime, String line) {
+        this.visitor = visitor;
+        this.locationId = locationId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.line = line;
+    }
+}
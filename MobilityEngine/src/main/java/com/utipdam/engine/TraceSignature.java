@@ -0,0 +1,50 @@
+package com.utipdam.engine;
+
+import java.util.Arrays;
+
+//ordered location sequence of one unique id, the 'seq' tuple of the python scripts
+public final class TraceSignature implements Comparable<TraceSignature> {
+    private final int[] locations;
+    private final int hash;
+
+    public TraceSignature(int[] locations) {
+        this.locations = locations;
+        this.hash = Arrays.hashCode(locations);
+    }
+
+    public int[] getLocations() {
+        return locations;
+    }
+
+    public int length() {
+        return locations.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TraceSignature)) {
+            return false;
+        }
+        TraceSignature that = (TraceSignature) o;
+        return hash == that.hash && Arrays.equals(locations, that.locations);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    //tuple ordering, used to list offending traces in the same order as the audit script
+    @Override
+    public int compareTo(TraceSignature o) {
+        return Arrays.compare(locations, o.locations);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(locations);
+    }
+}
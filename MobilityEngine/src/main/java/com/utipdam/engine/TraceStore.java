@@ -0,0 +1,244 @@
+package com.utipdam.engine;
+
+import com.utipdam.csv.MobilityCsvParser;
+import com.utipdam.csv.TraceColumns;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+//binary copy of a dataset file written next to it, read through a memory mapping instead of parsing the csv. the rows are
+//grouped by visitor in time order (CSR layout): visitor ids as longs, the offsets of each visitor's rows, then one column
+//per field. start times are seconds since the previous row of the visitor (the first one since the earliest start of the
+//file), end times seconds after the start, and distances a byte code into the labels of the header. close drops the
+//mapping, which the JVM unmaps once it is collected, so a store is opened for the duration of one use
+public class TraceStore implements Closeable {
+    private static final int MAGIC = 0x54525354;
+    private static final int VERSION = 1;
+
+    private MappedByteBuffer buffer;
+    private final boolean newFormat;
+    private final int visitorCount;
+    private final int rowCount;
+    private final long baseTime;
+    private final String[] distanceLabels;
+    private final int visitorsAt;
+    private final int offsetsAt;
+    private final int locationsAt;
+    private final int startsAt;
+    private final int durationsAt;
+    private final int distancesAt;
+
+    private TraceStore(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a trace store");
+        }
+        newFormat = buffer.get() == 1;
+        visitorCount = buffer.getInt();
+        rowCount = buffer.getInt();
+        baseTime = buffer.getLong();
+        distanceLabels = new String[buffer.getShort()];
+        for (int i = 0; i < distanceLabels.length; i++) {
+            byte[] label = new byte[buffer.getShort()];
+            buffer.get(label);
+            distanceLabels[i] = new String(label, StandardCharsets.UTF_8);
+        }
+        visitorsAt = buffer.position();
+        offsetsAt = visitorsAt + Long.BYTES * visitorCount;
+        locationsAt = offsetsAt + Integer.BYTES * (visitorCount + 1);
+        startsAt = locationsAt + Integer.BYTES * rowCount;
+        durationsAt = startsAt + Integer.BYTES * rowCount;
+        distancesAt = durationsAt + Integer.BYTES * rowCount;
+        if (distancesAt + rowCount != buffer.limit()) {
+            throw new IOException("Truncated trace store");
+        }
+    }
+
+    public static Path pathOf(Path directory, String datasetId) {
+        return directory.resolve("traces-" + datasetId + ".bin");
+    }
+
+    public static TraceStore open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Trace store too large: " + file);
+            }
+            //the mapping stays valid after the channel is closed
+            return new TraceStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static void write(Path csv, Path file) throws IOException {
+        write(csv, file, null);
+    }
+
+    //rows whose location or times cannot be parsed are left out, like the csv scan of visitorDetection did. pool null
+    //parses the file in the calling thread
+    public static void write(Path csv, Path file, ForkJoinPool pool) throws IOException {
+        TraceColumns columns = MobilityCsvParser.parse(csv, pool);
+        int rows = columns.size();
+        long baseTime = 0;
+        for (int row = 0; row < rows; row++) {
+            baseTime = row == 0 ? columns.startTime(row) : Math.min(baseTime, columns.startTime(row));
+        }
+        long[] visitorIds = new long[rows];
+        for (int row = 0; row < rows; row++) {
+            visitorIds[row] = columns.visitorId(row);
+        }
+        visitorIds = distinct(visitorIds);
+        int visitors = visitorIds.length;
+        int[] order = order(columns, visitorIds);
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(columns.isNewFormat() ? 1 : 0);
+            out.writeInt(visitors);
+            out.writeInt(rows);
+            out.writeLong(baseTime);
+            out.writeShort(columns.getDistanceLabels().size());
+            for (String label : columns.getDistanceLabels()) {
+                byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+            for (int i = 0; i < rows; i++) {
+                if (i == 0 || columns.visitorId(order[i]) != columns.visitorId(order[i - 1])) {
+                    out.writeLong(columns.visitorId(order[i]));
+                }
+            }
+            for (int i = 0; i < rows; i++) {
+                if (i == 0 || columns.visitorId(order[i]) != columns.visitorId(order[i - 1])) {
+                    out.writeInt(i);
+                }
+            }
+            out.writeInt(rows);
+            for (int i = 0; i < rows; i++) {
+                out.writeInt(columns.location(order[i]));
+            }
+            for (int i = 0; i < rows; i++) {
+                boolean first = i == 0 || columns.visitorId(order[i]) != columns.visitorId(order[i - 1]);
+                long previous = first ? baseTime : columns.startTime(order[i - 1]);
+                out.writeInt((int) (columns.startTime(order[i]) - previous));
+            }
+            for (int i = 0; i < rows; i++) {
+                out.writeInt((int) Math.max(0, columns.endTime(order[i]) - columns.startTime(order[i])));
+            }
+            for (int i = 0; i < rows; i++) {
+                out.writeByte(columns.distance(order[i]));
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //rows of a visitor next to each other in time order, rows starting at the same time keep their file order. only
+    //primitive sorts: the rows by start time through packed (start time rank, row) keys, then a stable counting sort of
+    //those by the rank of the visitor id
+    private static int[] order(TraceColumns columns, long[] visitorIds) {
+        int rows = columns.size();
+        long[] startTimes = new long[rows];
+        for (int row = 0; row < rows; row++) {
+            startTimes[row] = columns.startTime(row);
+        }
+        startTimes = distinct(startTimes);
+        long[] keys = new long[rows];
+        int[] visitorOf = new int[rows];
+        int[] next = new int[visitorIds.length + 1];
+        for (int row = 0; row < rows; row++) {
+            keys[row] = (long) Arrays.binarySearch(startTimes, columns.startTime(row)) << 32 | row;
+            visitorOf[row] = Arrays.binarySearch(visitorIds, columns.visitorId(row));
+            next[visitorOf[row] + 1]++;
+        }
+        Arrays.sort(keys);
+        for (int visitor = 0; visitor < visitorIds.length; visitor++) {
+            next[visitor + 1] += next[visitor];
+        }
+        int[] order = new int[rows];
+        for (long key : keys) {
+            int row = (int) key;
+            order[next[visitorOf[row]]++] = row;
+        }
+        return order;
+    }
+
+    //sorts values in place and returns them without duplicates
+    private static long[] distinct(long[] values) {
+        Arrays.sort(values);
+        int count = 0;
+        for (long value : values) {
+            if (count == 0 || value != values[count - 1]) {
+                values[count++] = value;
+            }
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+    @Override
+    public void close() {
+        buffer = null;
+    }
+
+    public boolean isNewFormat() {
+        return newFormat;
+    }
+
+    public int getVisitorCount() {
+        return visitorCount;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long visitorId(int visitor) {
+        return buffer.getLong(visitorsAt + Long.BYTES * visitor);
+    }
+
+    //rows of a visitor are firstRow(visitor) until firstRow(visitor + 1)
+    public int firstRow(int visitor) {
+        return buffer.getInt(offsetsAt + Integer.BYTES * visitor);
+    }
+
+    public int location(int row) {
+        return buffer.getInt(locationsAt + Integer.BYTES * row);
+    }
+
+    //locations of a visitor in time order
+    public int[] locations(int visitor) {
+        int first = firstRow(visitor);
+        int[] locations = new int[firstRow(visitor + 1) - first];
+        ByteBuffer view = buffer.duplicate().position(locationsAt + Integer.BYTES * first);
+        view.asIntBuffer().get(locations);
+        return locations;
+    }
+
+    //epoch seconds of the starts of a visitor's rows
+    public long[] startTimes(int visitor) {
+        int first = firstRow(visitor);
+        long[] times = new long[firstRow(visitor + 1) - first];
+        long time = baseTime;
+        for (int i = 0; i < times.length; i++) {
+            time += buffer.getInt(startsAt + Integer.BYTES * (first + i));
+            times[i] = time;
+        }
+        return times;
+    }
+
+    public int duration(int row) {
+        return buffer.getInt(durationsAt + Integer.BYTES * row);
+    }
+
+    public String distance(int row) {
+        return distanceLabels[buffer.get(distancesAt + row) & 0xff];
+    }
+}
@@ -0,0 +1,199 @@
+package com.utipdam.engine;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.RFC4180ParserBuilder;
+import com.opencsv.exceptions.CsvValidationException;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+//rows sorted by start_time, end_time, location_id and the location sequence (trace) of every unique id
+@Getter
+public class TraceTable {
+    private final CsvLayout layout;
+    private final List<TraceRow> rows;
+    private final TraceSignature[] traces;
+    private final Map<TraceSignature, Integer> counts;
+
+    private static final Comparator<TraceRow> ORDER = Comparator.comparingLong(TraceRow::getStartTime)
+            .thenComparingLong(TraceRow::getEndTime)
+            .thenComparingInt(TraceRow::getLocationId);
+
+    //visitors are split into partitions by unique id hash, each partition builds its traces and counts on its own from
+    //its bucket of rows and visitors
+    private TraceTable(CsvLayout layout, List<TraceRow> rows, int[] partitionOf, int[] localIndex, int[] partitionSizes) {
+        this.layout = layout;
+        this.rows = rows;
+        this.traces = new TraceSignature[partitionOf.length];
+
+        //counting sort of the row indices by partition, rows stay in sorted order within a bucket
+        int partitions = partitionSizes.length;
+        int[] rowStart = new int[partitions + 1];
+        for (TraceRow row : rows) {
+            rowStart[partitionOf[row.getVisitor()] + 1]++;
+        }
+        int[] visitorStart = new int[partitions + 1];
+        for (int p = 0; p < partitions; p++) {
+            rowStart[p + 1] += rowStart[p];
+            visitorStart[p + 1] = visitorStart[p] + partitionSizes[p];
+        }
+        int[] rowBuckets = new int[rows.size()];
+        int[] next = Arrays.copyOf(rowStart, partitions);
+        for (int i = 0; i < rowBuckets.length; i++) {
+            rowBuckets[next[partitionOf[rows.get(i).getVisitor()]]++] = i;
+        }
+        int[] visitorBuckets = new int[partitionOf.length];
+        for (int visitor = 0; visitor < partitionOf.length; visitor++) {
+            visitorBuckets[visitorStart[partitionOf[visitor]] + localIndex[visitor]] = visitor;
+        }
+
+        List<Map<TraceSignature, Integer>> partial = IntStream.range(0, partitions)
+                .parallel()
+                .mapToObj(p -> buildTraces(rowBuckets, rowStart[p], rowStart[p + 1],
+                        visitorBuckets, visitorStart[p], partitionSizes[p], localIndex))
+                .toList();
+        this.counts = partial.get(0);
+        for (int p = 1; p < partial.size(); p++) {
+            partial.get(p).forEach((trace, count) -> counts.merge(trace, count, Integer::sum));
+        }
+    }
+
+    public static TraceTable read(Reader reader, boolean keepLines) throws IOException, InvalidInputException {
+        return read(reader, keepLines, null);
+    }
+
+    //pool set: sorting and trace building run on the pool, the result is the same as the serial read
+    public static TraceTable read(Reader reader, boolean keepLines, ForkJoinPool pool) throws IOException, InvalidInputException {
+        List<TraceRow> rows = new ArrayList<>();
+        Map<String, Integer> visitors = new HashMap<>();
+        CsvLayout layout = scan(reader, keepLines, (uniqueId, locationId, startTime, endTime, line) -> {
+            Integer visitor = visitors.computeIfAbsent(uniqueId, id -> visitors.size());
+            rows.add(new TraceRow(visitor, locationId, startTime, endTime, line));
+        });
+
+        int partitions = pool == null ? 1 : pool.getParallelism();
+        int[] partitionOf = new int[visitors.size()];
+        int[] localIndex = new int[visitors.size()];
+        int[] partitionSizes = new int[partitions];
+        for (Map.Entry<String, Integer> visitor : visitors.entrySet()) {
+            int p = Math.floorMod(visitor.getKey().hashCode(), partitions);
+            partitionOf[visitor.getValue()] = p;
+            localIndex[visitor.getValue()] = partitionSizes[p]++;
+        }
+        visitors.clear();
+
+        if (pool == null) {
+            rows.sort(ORDER);
+            return new TraceTable(layout, rows, partitionOf, localIndex, partitionSizes);
+        }
+        //parallelSort is stable like List.sort, so equal rows keep their file order
+        TraceRow[] sorted = rows.toArray(new TraceRow[0]);
+        rows.clear();
+        pool.invoke(ForkJoinTask.adapt(() -> Arrays.parallelSort(sorted, ORDER)));
+        return pool.invoke(ForkJoinTask.adapt(() -> new TraceTable(layout, Arrays.asList(sorted), partitionOf, localIndex, partitionSizes)));
+    }
+
+    //parses and validates every row with a non zero location in file order, shared by the in-memory and spilling tables
+    public static CsvLayout scan(Reader reader, boolean keepLines, RowSink sink) throws IOException, InvalidInputException {
+        try (CSVReader csvReader = new CSVReaderBuilder(reader).withCSVParser(new RFC4180ParserBuilder().build()).build()) {
+            CsvLayout layout = CsvLayout.of(csvReader.readNext());
+            int minColumns = Math.max(Math.max(layout.getLocationIndex(), layout.getUniqueIdIndex()),
+                    Math.max(layout.getStartIndex(), layout.getEndIndex())) + 1;
+
+            int firstLocation = 0;
+            boolean multipleLocations = false;
+
+            String[] record;
+            long lineNumber = 1;
+            while ((record = csvReader.readNext()) != null) {
+                lineNumber++;
+                if (record.length == 1 && record[0].isBlank()) {
+                    continue;
+                }
+                if (record.length < minColumns) {
+                    throw new InvalidInputException("Invalid row at line " + lineNumber);
+                }
+                int locationId = parseLocation(record[layout.getLocationIndex()], lineNumber);
+                if (locationId == 0) {
+                    continue;
+                }
+                if (firstLocation == 0) {
+                    firstLocation = locationId;
+                } else if (firstLocation != locationId) {
+                    multipleLocations = true;
+                }
+
+                sink.accept(record[layout.getUniqueIdIndex()], locationId,
+                        CsvLayout.parseTime(record[layout.getStartIndex()]),
+                        CsvLayout.parseTime(record[layout.getEndIndex()]),
+                        keepLines ? layout.outputLine(record) : null);
+            }
+
+            if (!multipleLocations) {
+                throw new InvalidInputException("Number of mobility points must be more than 2");
+            }
+            return layout;
+        } catch (CsvValidationException e) {
+            throw new InvalidInputException("An error occurred while reading file. " + e.getMessage());
+        }
+    }
+
+    public int getVisitorCount() {
+        return traces.length;
+    }
+
+    public int count(int visitor) {
+        return counts.get(traces[visitor]);
+    }
+
+    //rowBuckets[rowFrom, rowTo): the sorted rows of the partition, visitorBuckets[visitorFrom, visitorFrom + size): its
+    //visitors in local index order
+    private Map<TraceSignature, Integer> buildTraces(int[] rowBuckets, int rowFrom, int rowTo,
+                                                     int[] visitorBuckets, int visitorFrom, int size, int[] localIndex) {
+        int[] sizes = new int[size];
+        for (int i = rowFrom; i < rowTo; i++) {
+            sizes[localIndex[rows.get(rowBuckets[i]).getVisitor()]]++;
+        }
+        int[][] sequences = new int[size][];
+        for (int v = 0; v < size; v++) {
+            sequences[v] = new int[sizes[v]];
+        }
+        int[] position = new int[size];
+        for (int i = rowFrom; i < rowTo; i++) {
+            TraceRow row = rows.get(rowBuckets[i]);
+            int v = localIndex[row.getVisitor()];
+            sequences[v][position[v]++] = row.getLocationId();
+        }
+
+        Map<TraceSignature, Integer> partitionCounts = new HashMap<>();
+        for (int v = 0; v < size; v++) {
+            TraceSignature trace = new TraceSignature(sequences[v]);
+            traces[visitorBuckets[visitorFrom + v]] = trace;
+            partitionCounts.merge(trace, 1, Integer::sum);
+        }
+        return partitionCounts;
+    }
+
+    private static int parseLocation(String value, long lineNumber) throws InvalidInputException {
+        String location = value.trim();
+        try {
+            return Integer.parseInt(location);
+        } catch (NumberFormatException e) {
+            try {
+                return (int) Double.parseDouble(location);
+            } catch (NumberFormatException ex) {
+                throw new InvalidInputException("Invalid location id at line " + lineNumber);
+            }
+        }
+    }
+
+    public interface RowSink {
+        void accept(String uniqueId, int locationId, long startTime, long endTime, String line) throws IOException;
+    }
+}
@@ -0,0 +1,134 @@
+package com.utipdam.engine;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+//test.csv of the repository: 43 rows of 33 unique ids. its traces are shared by 7, 5, 4, 4, 3 and 3 ids, the other 7
+//traces by one id each
+class AnonymizationEngineTest {
+    private static final Path INPUT = Path.of("..", "test.csv");
+    private static final int ROWS = 43;
+    private static final int VISITORS = 33;
+
+    private static final Set<String> SUPPRESSED_K2 = Set.of("11532500170", "11579220635", "12559484957", "14747167643",
+            "24380082366", "8233789685", "9424262740");
+    private static final Set<String> SUPPRESSED_K3 = union(SUPPRESSED_K2, Set.of("14761489269", "15718421201",
+            "17773567967", "19138497187", "21106047979", "9255826815"));
+    //only the traces shared by 7 ids are left
+    private static final Set<String> KEPT_K5 = Set.of("18937190568", "20181058159", "21057751784", "21180275539",
+            "24409655782", "24448109193", "7171685259");
+
+    private static ForkJoinPool pool;
+
+    @TempDir
+    Path spillDirectory;
+
+    @BeforeAll
+    static void startPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdown();
+    }
+
+    static Stream<Arguments> cases() {
+        List<Arguments> cases = new ArrayList<>();
+        for (String mode : List.of("serial", "parallel", "spilled")) {
+            cases.add(Arguments.of(mode, 2, kept(id -> !SUPPRESSED_K2.contains(id)), 7L));
+            cases.add(Arguments.of(mode, 3, kept(id -> !SUPPRESSED_K3.contains(id)), 13L));
+            cases.add(Arguments.of(mode, 5, kept(KEPT_K5::contains), 26L));
+        }
+        return cases.stream();
+    }
+
+    @ParameterizedTest(name = "{0} k={1}")
+    @MethodSource("cases")
+    void anonymize(String mode, int k, List<String> expectedRows, long expectedTargets) throws Exception {
+        StringWriter output = new StringWriter();
+        AnonymizationMetrics metrics;
+        try (Reader reader = Files.newBufferedReader(INPUT, StandardCharsets.UTF_8)) {
+            metrics = switch (mode) {
+                case "serial" -> new AnonymizationEngine().anonymize(reader, k, output, true);
+                case "parallel" -> new AnonymizationEngine(pool).anonymize(reader, k, output, true);
+                default -> new AnonymizationEngine().anonymize(reader, k, output, true, spillDirectory, 3);
+            };
+        }
+
+        List<String> lines = new ArrayList<>(output.toString().lines().toList());
+        assertEquals(metrics.toMetricsLine(), lines.remove(0));
+        assertEquals(CsvLayout.outputHeader(), lines.remove(0));
+        //the spilled engine writes the rows partition by partition
+        Collections.sort(lines);
+        assertEquals(expectedRows, lines);
+
+        assertEquals(expectedRows.size(), metrics.getAnonymizedTotal());
+        assertEquals(ROWS, metrics.getOriginalTotal());
+        assertEquals(expectedTargets, metrics.getTargetTotal());
+        assertEquals(VISITORS, metrics.getTraceTotal());
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("modes")
+    void sweepMatchesAnonymize(String mode) throws Exception {
+        SortedMap<Integer, AnonymizationMetrics> sweep;
+        try (Reader reader = Files.newBufferedReader(INPUT, StandardCharsets.UTF_8)) {
+            sweep = switch (mode) {
+                case "serial" -> new AnonymizationEngine().sweep(reader, 1, 8);
+                case "parallel" -> new AnonymizationEngine(pool).sweep(reader, 1, 8);
+                default -> new AnonymizationEngine().sweep(reader, 1, 8, spillDirectory, 3);
+            };
+        }
+        assertEquals(List.of(1, 2, 3, 4, 5, 6, 7, 8), new ArrayList<>(sweep.keySet()));
+        for (int k = 1; k <= 8; k++) {
+            AnonymizationMetrics expected;
+            try (Reader reader = Files.newBufferedReader(INPUT, StandardCharsets.UTF_8)) {
+                expected = new AnonymizationEngine().anonymize(reader, k, new StringWriter(), false);
+            }
+            assertEquals(expected.toMap(), sweep.get(k).toMap(), "k=" + k);
+        }
+        //every trace is shared by at most 7 ids
+        assertEquals(0, sweep.get(7).getAnonymizedTotal());
+    }
+
+    static Stream<String> modes() {
+        return Stream.of("serial", "parallel", "spilled");
+    }
+
+    //the data rows of test.csv whose unique id is kept, sorted
+    private static List<String> kept(Predicate<String> keep) {
+        try {
+            List<String> lines = Files.readAllLines(INPUT, StandardCharsets.UTF_8);
+            return lines.subList(1, lines.size()).stream()
+                    .filter(line -> keep.test(line.split(",")[2]))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Set<String> union(Set<String> a, Set<String> b) {
+        Set<String> union = new HashSet<>(a);
+        union.addAll(b);
+        return union;
+    }
+}
@@ -0,0 +1,42 @@
+import pandas as pd
+import numpy as np
+import json, os, runpy, sys, traceback
+
+# long-lived worker of the mobility service: keeps pandas and numpy imported and runs the
+# anonymization / audit scripts on request instead of starting a new interpreter per call
+#
+# every request is one json line on stdin
+#   {"script": "/opt/utils/audit-v1.2.py", "args": ["--input", "...", "--k", "2"], "output": "/tmp/..."}
+#   {"ping": true}
+# and is answered by one json line {"exit": <exit code>}, the script stdout and stderr go to the output file
+
+def run(request):
+    with open(request['output'], 'w') as out:
+        stdout, stderr, argv = sys.stdout, sys.stderr, sys.argv
+        sys.stdout = sys.stderr = out
+        sys.argv = [request['script']] + request['args']
+        try:
+            runpy.run_path(request['script'], run_name='__main__')
+            return 0
+        except SystemExit as e:
+            return e.code if isinstance(e.code, int) else (0 if e.code is None else 1)
+        except BaseException:
+            traceback.print_exc()
+            return 1
+        finally:
+            sys.stdout, sys.stderr, sys.argv = stdout, stderr, argv
+
+def main():
+    # replies use a private copy of stdout, anything else written to fd 1 ends up on stderr
+    replies = os.fdopen(os.dup(1), 'w')
+    os.dup2(2, 1)
+    for line in sys.stdin:
+        if not line.strip():
+            continue
+        request = json.loads(line)
+        code = 0 if request.get('ping') else run(request)
+        replies.write(json.dumps({'exit': code}) + '\n')
+        replies.flush()
+
+if __name__ == '__main__':
+    main()
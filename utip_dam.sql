@@ -15,6 +15,34 @@
 /*!40101 SET @OLD_SQL_MODE=@@SQL_MODE, SQL_MODE='NO_AUTO_VALUE_ON_ZERO' */;
 /*!40111 SET @OLD_SQL_NOTES=@@SQL_NOTES, SQL_NOTES=0 */;
 
+--
+-- Table structure for table `anonymization_job`
+--
+
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!50503 SET character_set_client = utf8mb4 */;
+CREATE TABLE `anonymization_job` (
+  `id` binary(16) NOT NULL,
+  `dataset_definition_id` binary(16) NOT NULL,
+  `dataset_id` binary(16) DEFAULT NULL,
+  `user_id` bigint DEFAULT NULL,
+  `sha256` varchar(64) DEFAULT NULL,
+  `status` varchar(20) NOT NULL,
+  `k` int DEFAULT NULL,
+  `resolution` varchar(10) DEFAULT NULL,
+  `progress` int DEFAULT NULL,
+  `file_name` varchar(255) DEFAULT NULL,
+  `message` varchar(1000) DEFAULT NULL,
+  `created_at` timestamp NOT NULL,
+  `started_at` timestamp NULL DEFAULT NULL,
+  `finished_at` timestamp NULL DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `anonymization_job_status` (`status`),
+  KEY `anonymization_job_FK` (`dataset_definition_id`),
+  CONSTRAINT `anonymization_job_FK` FOREIGN KEY (`dataset_definition_id`) REFERENCES `dataset_definition` (`id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
 --
 -- Table structure for table `dataset`
 --